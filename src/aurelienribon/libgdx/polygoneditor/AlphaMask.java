@@ -0,0 +1,87 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * Alpha channel of an image, one byte per pixel, row 0 being the top of the
+ * image. Decoded with ImageIO, so no GL context is needed. Images without
+ * alpha are fully opaque.
+ */
+public class AlphaMask {
+	private final int width, height;
+	private final byte[] alpha;
+
+	public AlphaMask(int width, int height, byte[] alpha) {
+		if (alpha.length < width * height) throw new IllegalArgumentException("Not enough alpha values");
+		this.width = width;
+		this.height = height;
+		this.alpha = alpha;
+	}
+
+	public static AlphaMask read(File file) throws IOException {
+		BufferedImage img = ImageIO.read(file);
+		if (img == null) throw new IOException("Unsupported image format: " + file.getPath());
+
+		int w = img.getWidth(), h = img.getHeight();
+		byte[] alpha = new byte[w * h];
+		int[] row = new int[w];
+
+		if (!img.getColorModel().hasAlpha()) {
+			Arrays.fill(alpha, (byte) 255);
+
+		} else if (hasIntegerAlpha(img)) {
+			// Samples can be 16 bits, or less than 8, and are scaled to a byte
+			WritableRaster raster = img.getAlphaRaster();
+			int bits = raster.getSampleModel().getSampleSize(0);
+			int max = (1 << bits) - 1;
+
+			for (int y=0; y<h; y++) {
+				raster.getSamples(0, y, w, 1, 0, row);
+				for (int x=0; x<w; x++) {
+					alpha[y*w + x] = (byte) (bits >= 8 ? row[x] >>> (bits - 8) : row[x] * 255 / max);
+				}
+			}
+
+		} else {
+			for (int y=0; y<h; y++) {
+				img.getRGB(0, y, w, 1, row, 0, w);
+				for (int x=0; x<w; x++) alpha[y*w + x] = (byte) (row[x] >>> 24);
+			}
+		}
+
+		return new AlphaMask(w, h, alpha);
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	public int getWidth() {return width;}
+	public int getHeight() {return height;}
+
+	/**
+	 * Gets the alpha (0-255) of the given pixel, or 0 outside of the image.
+	 */
+	public int get(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) return 0;
+		return alpha[y*width + x] & 0xFF;
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private static boolean hasIntegerAlpha(BufferedImage img) {
+		WritableRaster raster = img.getAlphaRaster();
+		if (raster == null) return false;
+		int type = raster.getTransferType(), bits = raster.getSampleModel().getSampleSize(0);
+		boolean integer = type == DataBuffer.TYPE_BYTE || type == DataBuffer.TYPE_USHORT || type == DataBuffer.TYPE_INT;
+		return integer && bits > 0 && bits <= 16;
+	}
+}
@@ -0,0 +1,376 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.gdx.PolygonSimplifier;
+import com.badlogic.gdx.math.Vector2;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the shapes of a model from the alpha channel of its image. The
+ * outlines of the pixels whose alpha is above a threshold are extracted
+ * with marching squares, so that they enclose every solid pixel, then
+ * simplified to a few vertices, which can cut into the pixels by up to the
+ * tolerance. Only outer outlines are kept: holes are filled, and parts
+ * lying inside another outline are dropped.
+ */
+public class AlphaTracer {
+	private int threshold = 0;
+	private float tolerance = 1.5f;
+	private int maxVertices = 24;
+	private float minArea = 16;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// Edges of a marching squares cell
+	private static final int TOP = 0, RIGHT = 1, BOTTOM = 2, LEFT = 3;
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Pixels with an alpha strictly above the threshold (0-254) are solid.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = Math.max(0, Math.min(254, threshold));
+	}
+
+	/**
+	 * Maximum distance, in pixels, between a traced outline and its
+	 * simplified version. Can be exceeded to respect the vertex count.
+	 * Shapes never intersect themselves, which can take more vertices.
+	 */
+	public void setTolerance(float tolerance) {
+		this.tolerance = Math.max(0, tolerance);
+	}
+
+	/**
+	 * Maximum number of vertices of each shape, unless more are needed to
+	 * keep it from intersecting itself.
+	 */
+	public void setMaxVertices(int maxVertices) {
+		this.maxVertices = Math.max(3, maxVertices);
+	}
+
+	/**
+	 * Outlines enclosing less pixels than this area are dropped.
+	 */
+	public void setMinArea(float minArea) {
+		this.minArea = minArea;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getThreshold() {return threshold;}
+	public float getTolerance() {return tolerance;}
+	public int getMaxVertices() {return maxVertices;}
+	public float getMinArea() {return minArea;}
+	public int getParallelism() {return parallelism;}
+
+	/**
+	 * Traces the image, without modifying the model. Can be called from any
+	 * thread.
+	 */
+	public List<Shape> trace(File imageFile) throws IOException {
+		return trace(AlphaMask.read(imageFile));
+	}
+
+	/**
+	 * Traces the mask. The shapes are in model coordinates: y goes up and
+	 * the origin is the bottom-left corner of the image.
+	 */
+	public List<Shape> trace(AlphaMask mask) {
+		List<float[]> outlines = new ArrayList<float[]>();
+		List<float[]> bounds = new ArrayList<float[]>();
+		extractOutlines(mask, outlines);
+
+		List<Shape> shapes = new ArrayList<Shape>();
+		for (int i=0; i<outlines.size(); i++) bounds.add(getBounds(outlines.get(i)));
+
+		PolygonSimplifier simplifier = new PolygonSimplifier();
+		simplifier.setMaxError(tolerance);
+		simplifier.setMaxVertices(maxVertices);
+
+		for (int i=0; i<outlines.size(); i++) {
+			float[] outline = outlines.get(i);
+			if (Math.abs(getSignedArea(outline)) < minArea) continue;
+			if (isNested(i, outlines, bounds)) continue;
+
+			List<Vector2> vs = new ArrayList<Vector2>(outline.length / 2);
+			for (int j=0; j<outline.length; j+=2) {
+				Vector2 v = new Vector2(outline[j], mask.getHeight() - outline[j+1]);
+				if (vs.isEmpty() || !v.equals(vs.get(vs.size()-1))) vs.add(v);
+			}
+			while (vs.size() > 1 && vs.get(0).equals(vs.get(vs.size()-1))) vs.remove(vs.size()-1);
+			if (vs.size() < 3) continue;
+
+			Shape shape = new Shape();
+			shape.vertices.addAll(simplifier.simplify(vs));
+			shape.closed = true;
+			shapes.add(shape);
+		}
+
+		return shapes;
+	}
+
+	/**
+	 * Replaces the shapes of every model by the traced ones, tracing the
+	 * images on a pool of worker threads. Must not be called while the
+	 * models are displayed. Models whose image can't be read are left
+	 * untouched, and the first error is thrown after the others are done.
+	 * The models have to be triangulated again.
+	 */
+	public void traceAll(List<ImageModel> models) throws IOException {
+		final List<List<Shape>> results = new ArrayList<List<Shape>>(models.size());
+		final IOException[] errors = new IOException[models.size()];
+		for (int i=0; i<models.size(); i++) results.add(null);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(models.size());
+		for (int i=0; i<models.size(); i++) {
+			final int idx = i;
+			final File file = models.get(i).file;
+			tasks.add(new Callable<Void>() {@Override public Void call() {
+				try {
+					results.set(idx, trace(file));
+				} catch (IOException ex) {
+					errors[idx] = ex;
+				}
+				return null;
+			}});
+		}
+
+		int threads = Math.min(parallelism, models.size());
+		if (threads <= 1) {
+			for (Callable<Void> task : tasks) {
+				try {task.call();} catch (Exception ex) {throw new RuntimeException(ex);}
+			}
+
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Tracing interrupted", ex);
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Tracing failed", ex.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		for (int i=0; i<models.size(); i++) {
+			if (results.get(i) != null) apply(models.get(i), results.get(i));
+		}
+		for (IOException error : errors) {
+			if (error != null) throw error;
+		}
+	}
+
+	/**
+	 * Replaces the shapes of the model. It has to be triangulated again.
+	 */
+	public static void apply(ImageModel model, List<Shape> shapes) {
+		model.clear();
+		model.shapes.addAll(shapes);
+	}
+
+	// -------------------------------------------------------------------------
+	// Marching squares
+	// -------------------------------------------------------------------------
+
+	// The samples are the pixel centers, padded with a transparent border.
+	// Sample (i, j) is pixel (i-1, j-1), and cell (i, j) has samples (i, j),
+	// (i+1, j), (i, j+1) and (i+1, j+1) as corners. Outlines cross the cell
+	// edges between a solid and a transparent sample. Saddle cells keep their
+	// two solid corners apart, so each crossing belongs to a single outline.
+	// Crossings stay on the transparent side of the solid pixels, and when an
+	// outline turns around a single solid corner, it goes through the corner
+	// of its pixel instead of cutting it, so solid pixels are fully enclosed.
+
+	private void extractOutlines(AlphaMask mask, List<float[]> outlines) {
+		int sw = mask.getWidth() + 2, sh = mask.getHeight() + 2;
+
+		// One bit per horizontal crossing, set once traced
+		BitSet visited = new BitSet((sw-1) * sh);
+		float[][] buffer = {new float[256]};
+
+		for (int j=1; j<sh-1; j++) {
+			for (int i=0; i<sw-1; i++) {
+				boolean left = isSolid(mask, i, j), right = isSolid(mask, i+1, j);
+				if (left == right || visited.get(j*(sw-1) + i)) continue;
+
+				// The first crossing found of an outline is its top-left one:
+				// it bounds a solid area if the solid side is on its right,
+				// otherwise it bounds a hole, which we don't need
+				int len = traceOutline(mask, i, j, visited, buffer);
+				if (right) outlines.add(Arrays.copyOf(buffer[0], len));
+			}
+		}
+	}
+
+	/**
+	 * Follows the outline crossing the top edge of cell (i, j), marking its
+	 * horizontal crossings as visited. The (x, row) coordinates of the
+	 * vertices are put in buffer[0], grown if needed, and their count is
+	 * returned.
+	 */
+	private int traceOutline(AlphaMask mask, int i0, int j0, BitSet visited, float[][] buffer) {
+		int sw = mask.getWidth() + 2;
+		int i = i0, j = j0, entry = TOP;
+		int len = 0;
+
+		while (true) {
+			if (entry == TOP) visited.set(j*(sw-1) + i);
+			else if (entry == BOTTOM) visited.set((j+1)*(sw-1) + i);
+
+			int exit = getExit(mask, i, j, entry);
+			if (len + 4 > buffer[0].length) buffer[0] = Arrays.copyOf(buffer[0], buffer[0].length * 2);
+			if (isCornerTurn(mask, i, j, entry, exit)) {
+				// The cell center is the corner of the solid pixel
+				buffer[0][len++] = Math.max(0, Math.min(mask.getWidth(), i));
+				buffer[0][len++] = Math.max(0, Math.min(mask.getHeight(), j));
+			}
+			len = addCrossing(mask, i, j, exit, buffer[0], len);
+
+			switch (exit) {
+				case TOP: j--; entry = BOTTOM; break;
+				case RIGHT: i++; entry = LEFT; break;
+				case BOTTOM: j++; entry = TOP; break;
+				default: i--; entry = RIGHT; break;
+			}
+
+			if (i == i0 && j == j0 && entry == TOP) break;
+		}
+
+		return len;
+	}
+
+	private int getExit(AlphaMask mask, int i, int j, int entry) {
+		boolean tl = isSolid(mask, i, j), tr = isSolid(mask, i+1, j);
+		boolean bl = isSolid(mask, i, j+1), br = isSolid(mask, i+1, j+1);
+
+		if (tl == br && tr == bl && tl != tr) {
+			// Saddle: each solid corner gets its own outline
+			if (tl) {
+				switch (entry) {
+					case TOP: return LEFT;
+					case LEFT: return TOP;
+					case RIGHT: return BOTTOM;
+					default: return RIGHT;
+				}
+			} else {
+				switch (entry) {
+					case TOP: return RIGHT;
+					case RIGHT: return TOP;
+					case LEFT: return BOTTOM;
+					default: return LEFT;
+				}
+			}
+		}
+
+		// Otherwise exactly two edges are crossed
+		if (entry != TOP && tl != tr) return TOP;
+		if (entry != RIGHT && tr != br) return RIGHT;
+		if (entry != BOTTOM && bl != br) return BOTTOM;
+		return LEFT;
+	}
+
+	/**
+	 * Returns true if the outline crosses two adjacent edges of the cell,
+	 * around a solid corner.
+	 */
+	private boolean isCornerTurn(AlphaMask mask, int i, int j, int entry, int exit) {
+		boolean top = entry == TOP || exit == TOP, bottom = entry == BOTTOM || exit == BOTTOM;
+		boolean right = entry == RIGHT || exit == RIGHT;
+		if (top == bottom) return false;
+		return isSolid(mask, right ? i+1 : i, bottom ? j+1 : j);
+	}
+
+	/**
+	 * Adds the point where the outline crosses the given edge of cell (i, j),
+	 * interpolated between the two samples from their alpha values. The
+	 * point is kept at least half a pixel away from the solid sample, on
+	 * the edge of its pixel or beyond, so that the pixel is fully enclosed.
+	 */
+	private int addCrossing(AlphaMask mask, int i, int j, int edge, float[] buffer, int len) {
+		int i1 = i, j1 = j, i2 = i, j2 = j;
+		switch (edge) {
+			case TOP: i2++; break;
+			case RIGHT: i1++; i2++; j2++; break;
+			case BOTTOM: j1++; i2++; j2++; break;
+			default: j2++; break;
+		}
+
+		int a1 = mask.get(i1-1, j1-1), a2 = mask.get(i2-1, j2-1);
+		float t = (threshold + 0.5f - a1) / (a2 - a1);
+		t = a1 > threshold ? Math.max(0.5f, t) : Math.min(0.5f, t);
+		t = Math.max(0, Math.min(1, t));
+
+		// Sample (i, j) is the center of pixel (i-1, j-1), clamped to the image
+		float x = i1 - 0.5f + t * (i2 - i1);
+		float y = j1 - 0.5f + t * (j2 - j1);
+		buffer[len] = Math.max(0, Math.min(mask.getWidth(), x));
+		buffer[len+1] = Math.max(0, Math.min(mask.getHeight(), y));
+		return len + 2;
+	}
+
+	private boolean isSolid(AlphaMask mask, int i, int j) {
+		return mask.get(i-1, j-1) > threshold;
+	}
+
+	// -------------------------------------------------------------------------
+	// Geometry
+	// -------------------------------------------------------------------------
+
+	private static float getSignedArea(float[] outline) {
+		float sum = 0;
+		for (int k=0, n=outline.length; k<n; k+=2) {
+			int l = (k+2) % n;
+			sum += outline[k] * outline[l+1] - outline[l] * outline[k+1];
+		}
+		return sum / 2;
+	}
+
+	private static float[] getBounds(float[] outline) {
+		float[] b = {Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int k=0; k<outline.length; k+=2) {
+			b[0] = Math.min(b[0], outline[k]); b[2] = Math.max(b[2], outline[k]);
+			b[1] = Math.min(b[1], outline[k+1]); b[3] = Math.max(b[3], outline[k+1]);
+		}
+		return b;
+	}
+
+	private static boolean isNested(int idx, List<float[]> outlines, List<float[]> bounds) {
+		float[] b = bounds.get(idx);
+		float x = outlines.get(idx)[0], y = outlines.get(idx)[1];
+
+		for (int i=0; i<outlines.size(); i++) {
+			if (i == idx) continue;
+			float[] ob = bounds.get(i);
+			if (b[0] < ob[0] || b[1] < ob[1] || b[2] > ob[2] || b[3] > ob[3]) continue;
+			if (contains(outlines.get(i), x, y)) return true;
+		}
+		return false;
+	}
+
+	private static boolean contains(float[] outline, float x, float y) {
+		boolean inside = false;
+		for (int k=0, n=outline.length, l=n-2; k<n; l=k, k+=2) {
+			float xk = outline[k], yk = outline[k+1], xl = outline[l], yl = outline[l+1];
+			if ((yk > y) != (yl > y) && x < (xl - xk) * (y - yk) / (yl - yk) + xk) inside = !inside;
+		}
+		return inside;
+	}
+}
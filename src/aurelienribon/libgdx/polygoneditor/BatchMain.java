@@ -0,0 +1,282 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.gdx.PolygonSimplifier;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Headless entry point: loads .psh projects, triangulates them again and
+ * writes them back, without any window or GL context. Meant to be run from
+ * build scripts:
+ * <pre>
+ * java -cp polygon-editor.jar aurelienribon.libgdx.polygoneditor.BatchMain [options] file.psh...
+ * </pre>
+ */
+public class BatchMain {
+	private static final String USAGE = ""
+		+ "Usage: BatchMain [options] <file.psh>...\n"
+		+ "Options:\n"
+		+ "  -j <n>      number of worker threads (default: number of cores)\n"
+		+ "  -o <dir>    write the projects to this directory instead of overwriting them\n"
+		+ "  -n          dry run, don't write anything\n"
+		+ "  -v          print the slowest models of each project\n"
+		+ "  --indexed   write the triangles as distinct vertices and indices\n"
+		+ "  --binary    write binary projects (text and binary inputs are both read)\n"
+		+ "              Projects are written with the extension of their format, .pshb for\n"
+		+ "              binary ones and .psh for text ones, next to the input without -o.\n"
+		+ "  --trace     replace the shapes by the outlines traced from the image alpha\n"
+		+ "  --trace-threshold <a>   alpha above which pixels are solid (default: 0)\n"
+		+ "  --trace-tolerance <px>  max distance to the traced outline (default: 1.5)\n"
+		+ "  --trace-vertices <n>    max vertices per shape (default: 24)\n"
+		+ "  --simplify  remove the vertices that barely change the shapes\n"
+		+ "  --simplify-method <dp|vw>  Douglas-Peucker or Visvalingam (default: dp)\n"
+		+ "  --simplify-error <e>       max distance (dp) or area (vw) error (default: 1)\n"
+		+ "  --simplify-vertices <n>    max vertices per shape\n"
+		+ "  --overdraw  print how well the triangles fit the image alpha\n"
+		+ "  --overdraw-threshold <a>   alpha above which pixels are opaque (default: 0)\n"
+		+ "  --max-overdraw <%>         fail if a model wastes more of its drawn pixels\n"
+		+ "  --max-uncovered <%>        fail if a model misses more of its opaque pixels\n"
+		+ "Exit codes: 0 success, 1 errors, 2 bad arguments, 3 overdraw limits exceeded\n";
+
+	private final List<File> inputs = new ArrayList<File>();
+	private final BatchTriangulator triangulator = new BatchTriangulator();
+	private final AlphaTracer tracer = new AlphaTracer();
+	private boolean trace;
+	private final ModelSimplifier simplifier = new ModelSimplifier(new PolygonSimplifier());
+	private boolean simplify;
+	private final OverdrawAnalyzer analyzer = new OverdrawAnalyzer();
+	private boolean overdraw;
+	private float maxOverdraw = -1, maxUncovered = -1;
+	private File outputDir;
+	private ImageModelIo.Format format = ImageModelIo.Format.TEXT;
+	private boolean dryRun;
+	private boolean verbose;
+
+	private int modelCount, vertexCount, triangleCount, errorCount, limitCount;
+	private long loadTime, traceTime, simplifyTime, triangulationTime, analysisTime, saveTime;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchMain batch = new BatchMain();
+		try {
+			batch.parseArgs(args);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+
+		batch.run();
+		System.exit(batch.errorCount > 0 ? 1 : batch.limitCount > 0 ? 3 : 0);
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private void parseArgs(String[] args) {
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+
+			if (arg.equals("-j")) {
+				int parallelism = parseInt(nextArg(args, ++i));
+				triangulator.setParallelism(parallelism);
+				tracer.setParallelism(parallelism);
+				simplifier.setParallelism(parallelism);
+				analyzer.setParallelism(parallelism);
+			} else if (arg.equals("--trace")) {
+				trace = true;
+			} else if (arg.equals("--trace-threshold")) {
+				tracer.setThreshold(parseInt(nextArg(args, ++i)));
+			} else if (arg.equals("--trace-tolerance")) {
+				tracer.setTolerance(parseFloat(nextArg(args, ++i)));
+			} else if (arg.equals("--trace-vertices")) {
+				tracer.setMaxVertices(parseInt(nextArg(args, ++i)));
+			} else if (arg.equals("--simplify")) {
+				simplify = true;
+			} else if (arg.equals("--simplify-method")) {
+				String method = nextArg(args, ++i);
+				if (method.equals("dp")) simplifier.getSimplifier().setMethod(PolygonSimplifier.Method.DOUGLAS_PEUCKER);
+				else if (method.equals("vw")) simplifier.getSimplifier().setMethod(PolygonSimplifier.Method.VISVALINGAM);
+				else throw new IllegalArgumentException("Unknown simplification method: " + method);
+			} else if (arg.equals("--simplify-error")) {
+				simplifier.getSimplifier().setMaxError(parseFloat(nextArg(args, ++i)));
+			} else if (arg.equals("--simplify-vertices")) {
+				simplifier.getSimplifier().setMaxVertices(parseInt(nextArg(args, ++i)));
+			} else if (arg.equals("--overdraw")) {
+				overdraw = true;
+			} else if (arg.equals("--overdraw-threshold")) {
+				analyzer.setThreshold(parseInt(nextArg(args, ++i)));
+			} else if (arg.equals("--max-overdraw")) {
+				maxOverdraw = parseFloat(nextArg(args, ++i)) / 100;
+				overdraw = true;
+			} else if (arg.equals("--max-uncovered")) {
+				maxUncovered = parseFloat(nextArg(args, ++i)) / 100;
+				overdraw = true;
+			} else if (arg.equals("--indexed")) {
+				format = ImageModelIo.Format.TEXT_INDEXED;
+			} else if (arg.equals("--binary")) {
+				format = ImageModelIo.Format.BINARY;
+			} else if (arg.equals("-o")) {
+				outputDir = new File(nextArg(args, ++i));
+			} else if (arg.equals("-n")) {
+				dryRun = true;
+			} else if (arg.equals("-v")) {
+				verbose = true;
+			} else if (arg.startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			} else {
+				inputs.add(new File(arg));
+			}
+		}
+
+		if (inputs.isEmpty()) throw new IllegalArgumentException("No input file");
+	}
+
+	private static int parseInt(String arg) {
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid number: " + arg);
+		}
+	}
+
+	private static float parseFloat(String arg) {
+		try {
+			return Float.parseFloat(arg);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid number: " + arg);
+		}
+	}
+
+	private static String nextArg(String[] args, int i) {
+		if (i >= args.length) throw new IllegalArgumentException("Missing value for " + args[i-1]);
+		return args[i];
+	}
+
+	private void run() {
+		long start = System.nanoTime();
+
+		for (File input : inputs) {
+			try {
+				process(input);
+			} catch (IOException ex) {
+				errorCount++;
+				System.err.println("Error: " + input.getPath() + ": " + ex.getMessage());
+			} catch (RuntimeException ex) {
+				errorCount++;
+				System.err.println("Error: " + input.getPath() + ": " + ex);
+			}
+		}
+
+		long totalTime = System.nanoTime() - start;
+		double seconds = Math.max(totalTime, 1) / 1e9;
+
+		System.out.println(String.format(Locale.US,
+			"%d project(s), %d model(s), %d vertices, %d triangles, %d error(s)",
+			inputs.size(), modelCount, vertexCount, triangleCount, errorCount));
+		if (limitCount > 0) System.out.println(limitCount + " model(s) over the overdraw limits");
+		System.out.println(String.format(Locale.US,
+			"Load %.1f ms, trace %.1f ms, triangulation %.1f ms, simplification %.1f ms, analysis %.1f ms, save %.1f ms, total %.1f ms on %d thread(s)",
+			loadTime / 1e6, traceTime / 1e6, triangulationTime / 1e6, simplifyTime / 1e6, analysisTime / 1e6, saveTime / 1e6, totalTime / 1e6, triangulator.getParallelism()));
+		System.out.println(String.format(Locale.US,
+			"Throughput: %.1f models/s, %.1f vertices/s (triangulation only: %.1f models/s, %.1f vertices/s)",
+			modelCount / seconds, vertexCount / seconds,
+			modelCount / Math.max(triangulationTime / 1e9, 1e-9), vertexCount / Math.max(triangulationTime / 1e9, 1e-9)));
+	}
+
+	private void process(File input) throws IOException {
+		long start = System.nanoTime();
+		List<ImageModel> models;
+		BatchTriangulator.Report report;
+
+		if (trace) {
+			// The shapes of the file are replaced, so they are not even read:
+			// tracing a lazy model drops its loader
+			models = ImageModelIo.loadLazily(input);
+			loadTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			tracer.traceAll(models);
+			traceTime += System.nanoTime() - start;
+			report = triangulator.triangulate(models);
+
+		} else {
+			// Loading triangulates every model from its shapes, the triangles
+			// stored in the file are not reused
+			models = ImageModelIo.load(input, triangulator);
+			report = triangulator.getLastReport();
+			loadTime += System.nanoTime() - start - report.getTotalTimeNanos();
+		}
+
+		triangulationTime += report.getTotalTimeNanos();
+		if (verbose) System.out.println(input.getPath() + ": " + report);
+
+		if (simplify) {
+			start = System.nanoTime();
+			ModelSimplifier.Report simplification = simplifier.simplifyAll(models);
+			simplifyTime += System.nanoTime() - start;
+			System.out.println(input.getPath() + ": " + simplification);
+		}
+
+		int vertices = 0;
+		for (ImageModel model : models) {
+			for (Shape shape : model.shapes) vertices += shape.vertices.size();
+			triangleCount += model.trianglesVertices.size() / 3;
+		}
+		modelCount += models.size();
+		vertexCount += vertices;
+
+		if (overdraw) {
+			start = System.nanoTime();
+			checkOverdraw(input, analyzer.analyzeAll(models));
+			analysisTime += System.nanoTime() - start;
+		}
+
+		if (dryRun) return;
+
+		File output = getOutput(input);
+		start = System.nanoTime();
+		ImageModelIo.save(output, models, triangulator, format);
+		saveTime += System.nanoTime() - start;
+	}
+
+	/**
+	 * Gets the file to write, in the output directory if any, else next to
+	 * the input. Its extension is changed if it doesn't match the format,
+	 * since the editor and the runtime loaders pick the format from it.
+	 */
+	private File getOutput(File input) {
+		String name = input.getName();
+		boolean binaryName = FilenameUtils.getExtension(name).equalsIgnoreCase(ImageModelIo.BINARY_EXTENSION);
+
+		if (format == ImageModelIo.Format.BINARY && !binaryName) {
+			name = FilenameUtils.getBaseName(name) + "." + ImageModelIo.BINARY_EXTENSION;
+		} else if (format != ImageModelIo.Format.BINARY && binaryName) {
+			name = FilenameUtils.getBaseName(name) + ".psh";
+		}
+
+		if (outputDir != null) return new File(outputDir, name);
+		return name.equals(input.getName()) ? input : new File(input.getAbsoluteFile().getParentFile(), name);
+	}
+
+	private void checkOverdraw(File input, OverdrawAnalyzer.Report report) {
+		System.out.println(input.getPath() + ":\n" + report);
+
+		for (int i=0; i<report.getModelCount(); i++) {
+			OverdrawAnalyzer.Stats stats = report.getStats(i);
+			boolean over = (maxOverdraw >= 0 && stats.getOverdrawRatio() > maxOverdraw)
+				|| (maxUncovered >= 0 && stats.getUncoveredRatio() > maxUncovered);
+			if (over) {
+				limitCount++;
+				System.err.println("Over the limits: " + stats);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Triangulates a whole list of models on a pool of worker threads. Each
+ * model is independent, so the results (and anything written from them
+ * afterwards) don't depend on the scheduling. Per-model timings are kept
+ * in a report to spot slow outliers.
+ */
+public class BatchTriangulator {
+	private int parallelism;
+	private Report lastReport;
+
+	public BatchTriangulator() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchTriangulator(int parallelism) {
+		setParallelism(parallelism);
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public Report getLastReport() {
+		return lastReport;
+	}
+
+	public Report triangulate(List<ImageModel> models) {
+		final long[] times = new long[models.size()];
+		long start = System.nanoTime();
+		int threads = Math.min(parallelism, models.size());
+
+		if (threads <= 1) {
+			for (int i=0; i<models.size(); i++) times[i] = triangulate(models.get(i));
+
+		} else {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(models.size());
+			for (int i=0; i<models.size(); i++) {
+				final int idx = i;
+				final ImageModel model = models.get(i);
+				tasks.add(new Callable<Void>() {@Override public Void call() {
+					times[idx] = triangulate(model);
+					return null;
+				}});
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Triangulation interrupted", ex);
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Triangulation failed", ex.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		lastReport = new Report(new ArrayList<ImageModel>(models), times, System.nanoTime() - start, threads);
+		return lastReport;
+	}
+
+	private static long triangulate(ImageModel model) {
+		long start = System.nanoTime();
+		model.triangulate();
+		return System.nanoTime() - start;
+	}
+
+	// -------------------------------------------------------------------------
+	// Report
+	// -------------------------------------------------------------------------
+
+	public static class Report {
+		private final List<ImageModel> models;
+		private final long[] times;
+		private final long totalTime;
+		private final int threads;
+
+		private Report(List<ImageModel> models, long[] times, long totalTime, int threads) {
+			this.models = models;
+			this.times = times;
+			this.totalTime = totalTime;
+			this.threads = threads;
+		}
+
+		public int getModelCount() {return models.size();}
+		public ImageModel getModel(int idx) {return models.get(idx);}
+		public long getTimeNanos(int idx) {return times[idx];}
+		public long getTotalTimeNanos() {return totalTime;}
+		public int getThreadCount() {return threads;}
+
+		/**
+		 * Gets the indices of the n slowest models, slowest first.
+		 */
+		public List<Integer> getSlowest(int n) {
+			List<Integer> idxs = new ArrayList<Integer>(times.length);
+			for (int i=0; i<times.length; i++) idxs.add(i);
+			Collections.sort(idxs, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return times[o1] < times[o2] ? 1 : times[o1] > times[o2] ? -1 : 0;
+				}
+			});
+			return idxs.subList(0, Math.min(n, idxs.size()));
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.US, "Triangulated %d models in %.1f ms on %d thread(s)",
+				models.size(), totalTime / 1e6, threads));
+			for (int idx : getSlowest(5)) {
+				sb.append(String.format(Locale.US, "\n  %8.2f ms  %s", times[idx] / 1e6, models.get(idx).file.getPath()));
+			}
+			return sb.toString();
+		}
+	}
+}
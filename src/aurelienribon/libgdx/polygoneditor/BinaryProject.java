@@ -0,0 +1,367 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.gdx.Vector2Array;
+import aurelienribon.utils.io.FilenameHelper;
+import com.badlogic.gdx.math.Vector2;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Binary version of .psh projects. Everything is little-endian and 4-byte
+ * aligned, so that the file can be memory-mapped and read in place:
+ * <pre>
+ * header       "PSHB", int version, int model count, int string table size
+ * strings      per model: ushort length, UTF-8 image path relative to the project
+ * model table  per model: long data offset, int data length, int path offset,
+ *              float image width, float image height
+ * model data   int shape count, int vertex count, int uv count, int index count,
+ *              per shape: int vertex count, int index count,
+ *              float32 shape coordinates, float32 distinct vertices,
+ *              float32 texture coordinates, uint16 indices
+ * </pre>
+ * The triangles are stored indexed, each shape using a consecutive range
+ * of indices, so they are restored without triangulating again. Floats are
+ * stored as-is, so converting from and to the text format is lossless.
+ * <p/>
+ * Opening a project only reads the header and the tables. Models are
+ * created with their image size only, and their shapes and triangles are
+ * read by ImageModel.load(), with a positional read of their block. No
+ * file handle or mapping is kept open in between: a mapping would only be
+ * released by the garbage collector, and a mapped file can't be replaced
+ * on Windows, so the project couldn't be saved over itself.
+ */
+public class BinaryProject {
+	private static final byte[] MAGIC = {'P', 'S', 'H', 'B'};
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int ENTRY_SIZE = 24;
+
+	private final File file;
+	private final long fileLength;
+	private final ByteBuffer buffer;
+	private final int count;
+	private final int tableOffset;
+	private final ImageModel[] models;
+
+	private BinaryProject(File file, long fileLength, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.fileLength = fileLength;
+		this.buffer = buffer;
+
+		if (buffer.limit() < HEADER_SIZE || !hasMagic(buffer) || buffer.getInt(4) != VERSION)
+			throw new IOException("Not a binary project, or unsupported version: " + file.getPath());
+
+		count = buffer.getInt(8);
+		tableOffset = align(HEADER_SIZE + buffer.getInt(12), 8);
+		if (count < 0 || (long) tableOffset + (long) count * ENTRY_SIZE > buffer.limit())
+			throw new IOException("Corrupted binary project: " + file.getPath());
+
+		models = new ImageModel[count];
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Returns true if the file starts like a binary project.
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[MAGIC.length];
+			int len = 0, n;
+			while (len < bytes.length && (n = is.read(bytes, len, bytes.length - len)) > 0) len += n;
+			return len == bytes.length && hasMagic(ByteBuffer.wrap(bytes));
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Reads the header and the tables of the file. The file must not be
+	 * modified while some models are not loaded, but it can be replaced
+	 * once they all are, for instance by saving the project over itself.
+	 */
+	public static BinaryProject open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			ByteBuffer header = read(channel, 0, (int) Math.min(length, HEADER_SIZE));
+			if (header.limit() < HEADER_SIZE || !hasMagic(header) || header.getInt(4) != VERSION)
+				throw new IOException("Not a binary project, or unsupported version: " + file.getPath());
+
+			int count = header.getInt(8), stringsSize = header.getInt(12);
+			if (count < 0 || stringsSize < 0 || stringsSize > length - HEADER_SIZE)
+				throw new IOException("Corrupted binary project: " + file.getPath());
+
+			long tablesEnd = align(HEADER_SIZE + stringsSize, 8) + (long) count * ENTRY_SIZE;
+			if (tablesEnd > length) throw new IOException("Corrupted binary project: " + file.getPath());
+			return new BinaryProject(file, length, read(channel, 0, (int) tablesEnd));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes snapshots of models, from any thread. See also
+	 * ImageModelIo.saveSnapshots(), which doesn't overwrite the file until
+	 * the project is completely written.
+	 */
+	public static void write(File file, List<ModelSnapshot> models) throws IOException {
+		write(file, file.getAbsoluteFile().getParent(), models, null);
+	}
+
+	/**
+	 * Writes to the file, with image paths relative to the base directory.
+	 */
+	static void write(File file, String base, List<ModelSnapshot> models, ImageModelIo.Progress progress) throws IOException {
+		byte[][] paths = new byte[models.size()][];
+		int stringsSize = 0;
+
+		for (int i=0; i<models.size(); i++) {
+			paths[i] = FilenameHelper.relativize(models.get(i).getFile().getPath(), base).getBytes("UTF-8");
+			if (paths[i].length > 0xFFFF) throw new IOException("Path too long: " + models.get(i).getFile().getPath());
+			stringsSize += 2 + paths[i].length;
+		}
+
+		int tableOffset = align(HEADER_SIZE + stringsSize, 8);
+		ByteBuffer head = ByteBuffer.allocate(tableOffset + models.size() * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		head.put(MAGIC).putInt(VERSION).putInt(models.size()).putInt(stringsSize);
+		for (byte[] path : paths) head.putShort((short) path.length).put(path);
+
+		long offset = head.capacity();
+		int pathOffset = 0;
+		head.position(tableOffset);
+
+		for (int i=0; i<models.size(); i++) {
+			ModelSnapshot model = models.get(i);
+			int length = getDataSize(model);
+			head.putLong(offset).putInt(length).putInt(pathOffset);
+			head.putFloat(model.getWidth()).putFloat(model.getHeight());
+			offset += length;
+			pathOffset += 2 + paths[i].length;
+		}
+
+		FileChannel channel = FileUtils.openOutputStream(file).getChannel();
+		try {
+			head.flip();
+			writeFully(channel, head);
+
+			ByteBuffer data = ByteBuffer.allocate(0);
+			for (int i=0; i<models.size(); i++) {
+				ModelSnapshot model = models.get(i);
+				int length = getDataSize(model);
+				if (data.capacity() < length) data = ByteBuffer.allocate(Math.max(length, data.capacity() * 2));
+				data.clear();
+				data.order(ByteOrder.LITTLE_ENDIAN);
+				writeData(model, data);
+				while (data.position() < length) data.put((byte) 0);
+				data.flip();
+				writeFully(channel, data);
+				ImageModelIo.report(progress, i+1, models.size());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getModelCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the image path of a model, relative to the project directory.
+	 */
+	public String getPath(int idx) {
+		ByteBuffer b = buffer.duplicate();
+		int pos = HEADER_SIZE + b.order(ByteOrder.LITTLE_ENDIAN).getInt(entry(idx) + 12);
+		byte[] bytes = new byte[b.getShort(pos) & 0xFFFF];
+		b.position(pos + 2);
+		b.get(bytes);
+
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	public float getWidth(int idx) {
+		return buffer.getFloat(entry(idx) + 16);
+	}
+
+	public float getHeight(int idx) {
+		return buffer.getFloat(entry(idx) + 20);
+	}
+
+	/**
+	 * Gets a model, created on the first call. It is not loaded yet.
+	 */
+	public synchronized ImageModel getModel(final int idx) throws IOException {
+		if (models[idx] == null) {
+			File imgFile = new File(file.getAbsoluteFile().getParent(), getPath(idx));
+			models[idx] = new ImageModel(imgFile, getWidth(idx), getHeight(idx), new ImageModel.Loader() {
+				@Override public void load(ImageModel model) throws IOException {readShapes(idx, model);}
+			});
+		}
+		return models[idx];
+	}
+
+	public List<ImageModel> getModels() throws IOException {
+		List<ImageModel> list = new ArrayList<ImageModel>(count);
+		for (int i=0; i<count; i++) list.add(getModel(i));
+		return list;
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private static boolean hasMagic(ByteBuffer b) {
+		for (int i=0; i<MAGIC.length; i++) if (b.get(i) != MAGIC[i]) return false;
+		return true;
+	}
+
+	private static int align(int n, int alignment) {
+		return (n + alignment - 1) / alignment * alignment;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) channel.write(b);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0) throw new IOException("Unexpected end of file");
+		}
+		b.flip();
+		return b;
+	}
+
+	private int entry(int idx) {
+		if (idx < 0 || idx >= count) throw new IndexOutOfBoundsException("Model " + idx + " of " + count);
+		return tableOffset + idx * ENTRY_SIZE;
+	}
+
+	/**
+	 * Gets the shapes to store. Like in text projects, shapes of less than 3
+	 * vertices are not loaded back, so they are not written at all.
+	 */
+	private static List<ShapeSnapshot> getStoredShapes(ModelSnapshot model) {
+		List<ShapeSnapshot> shapes = new ArrayList<ShapeSnapshot>(model.getShapes().size());
+		for (ShapeSnapshot shape : model.getShapes()) {
+			if (shape.getVertexCount() >= 3) shapes.add(shape);
+		}
+		return shapes;
+	}
+
+	private static int getDataSize(ModelSnapshot model) {
+		IndexedMesh mesh = model.getIndexedMesh();
+		List<ShapeSnapshot> shapes = getStoredShapes(model);
+		int vertexCount = 0;
+		for (ShapeSnapshot shape : shapes) vertexCount += shape.getVertexCount();
+
+		int size = 16 + shapes.size() * 8;
+		size += (vertexCount * 2 + mesh.getVertices().length + mesh.getUVs().length) * 4;
+		size += mesh.getIndices().length * 2;
+		return align(size, 4);
+	}
+
+	private static void writeData(ModelSnapshot model, ByteBuffer b) {
+		IndexedMesh mesh = model.getIndexedMesh();
+		float[] vs = mesh.getVertices(), uvs = mesh.getUVs();
+		short[] indices = mesh.getIndices();
+		List<ShapeSnapshot> shapes = getStoredShapes(model);
+
+		b.putInt(shapes.size()).putInt(vs.length / 2).putInt(uvs.length / 2).putInt(indices.length);
+		for (ShapeSnapshot shape : shapes) b.putInt(shape.getVertexCount()).putInt(shape.getTrianglesCount());
+
+		for (ShapeSnapshot shape : shapes) {
+			for (float f : shape.getCoords()) b.putFloat(f);
+		}
+		for (float f : vs) b.putFloat(f);
+		for (float f : uvs) b.putFloat(f);
+		for (short s : indices) b.putShort(s);
+	}
+
+	private void readShapes(int idx, ImageModel model) throws IOException {
+		int e = entry(idx);
+		long offset = buffer.getLong(e);
+		int length = buffer.getInt(e + 8);
+		if (offset < 0 || offset + length > fileLength || length < 16)
+			throw new IOException("Corrupted binary project: " + file.getPath() + ", model " + idx);
+
+		ByteBuffer b;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			b = read(raf.getChannel(), offset, length);
+		} finally {
+			raf.close();
+		}
+
+		try {
+			int shapesCount = b.getInt(), vsCount = b.getInt(), uvsCount = b.getInt(), indicesCount = b.getInt();
+			int[] sizes = new int[shapesCount * 2];
+			for (int i=0; i<sizes.length; i++) sizes[i] = b.getInt();
+
+			// Shapes of less than 3 vertices are skipped like in text projects,
+			// older files may still contain some
+			Shape[] shapes = new Shape[shapesCount];
+			for (int i=0; i<shapesCount; i++) {
+				if (sizes[i*2] < 3) {
+					for (int j=0; j<sizes[i*2]*2; j++) b.getFloat();
+					continue;
+				}
+
+				shapes[i] = new Shape();
+				for (int j=0; j<sizes[i*2]; j++) shapes[i].vertices.add(new Vector2(b.getFloat(), b.getFloat()));
+				shapes[i].closed = true;
+				model.shapes.add(shapes[i]);
+			}
+
+			float[] vs = new float[vsCount * 2], uvs = new float[uvsCount * 2];
+			for (int i=0; i<vs.length; i++) vs[i] = b.getFloat();
+			for (int i=0; i<uvs.length; i++) uvs[i] = b.getFloat();
+
+			int first = 0;
+			Vector2Array triangles = new Vector2Array();
+			Vector2Array triangleUVs = new Vector2Array();
+
+			for (int i=0; i<shapesCount; i++) {
+				triangles.clear();
+				triangleUVs.clear();
+
+				for (int j=first, n=first+sizes[i*2+1]; j<n; j++) {
+					if (j >= indicesCount) throw new IOException("Corrupted binary project: " + file.getPath() + ", model " + idx);
+					int k = b.getShort() & 0xFFFF;
+					triangles.add(vs[k*2], vs[k*2+1]);
+					if (uvsCount > 0) triangleUVs.add(uvs[k*2], uvs[k*2+1]);
+				}
+
+				if (shapes[i] != null) shapes[i].setTriangles(triangles, triangleUVs);
+				first += sizes[i*2+1];
+			}
+
+		} catch (RuntimeException ex) {
+			// buffer underflows and out of range indices
+			throw new IOException("Corrupted binary project: " + file.getPath() + ", model " + idx, ex);
+		}
+	}
+}
@@ -9,6 +9,9 @@ import aurelienribon.tweenengine.TweenCallback;
 import aurelienribon.tweenengine.TweenManager;
 import aurelienribon.utils.gdx.Label;
 import aurelienribon.utils.gdx.Label.Anchor;
+import aurelienribon.utils.gdx.TextureCache;
+import aurelienribon.utils.gdx.TiledImage;
+import aurelienribon.utils.notifications.ChangeListener;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
@@ -24,10 +27,16 @@ import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.BufferUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Canvas extends ApplicationAdapter {
 
@@ -39,6 +48,8 @@ public class Canvas extends ApplicationAdapter {
     private Texture bgTex;
     private static float bgTexOpacity = .2f;
     private Sprite sprite;
+    private TextureCache.Callback spriteCallback;
+    private TiledImage tiledImage;
 
     private final List<Label> labels = new ArrayList<Label>();
     private Label lblModeCreation;
@@ -47,15 +58,26 @@ public class Canvas extends ApplicationAdapter {
     private Label lblInsertVertices;
     private Label lblRemoveVertices;
     private Label lblMoveInsideVertices;
+    private Label lblAutoTrace;
 
     public OrthographicCamera camera;
     public ImageModel selectedModel;
-    public final List<Vector2> selectedPoints = new ArrayList<Vector2>();
+    public final VertexSelection selectedPoints = new VertexSelection();
     public Vector2 nearestPoint, nextPoint;
     public Vector2 mouseSelectionP1, mouseSelectionP2;
     public boolean drawTriangles = true, drawBoundingBox = true;
     public float spriteOpacity = 1.0f;
     public Color bgColor = new Color(1f, 1f, 1f, 1f);
+    public final TextureCache textureCache = new TextureCache(256L * 1024 * 1024);
+    public int tilingThreshold = 4096;
+    public final AlphaTracer tracer = new AlphaTracer();
+    private ImageModel tracedModel;
+    public final LiveTriangulator liveTriangulator = new LiveTriangulator(new Runnable() {
+        @Override
+        public void run() {
+            requestRendering();
+        }
+    });
 
     public static enum Mode {
         CREATION, EDITION
@@ -64,6 +86,10 @@ public class Canvas extends ApplicationAdapter {
 
     PanZoomInputProcessor panZoom;
 
+    private boolean continuousRendering = false;
+    private final AtomicInteger pendingFrames = new AtomicInteger(2);
+    private final AtomicBoolean changed = new AtomicBoolean(true);
+
     // -------------------------------------------------------------------------
     // Public API
     // -------------------------------------------------------------------------
@@ -79,6 +105,10 @@ public class Canvas extends ApplicationAdapter {
         font = new BitmapFont();
         drawer = new CanvasDrawer(camera);
 
+        IntBuffer maxTextureSize = BufferUtils.newIntBuffer(16);
+        Gdx.gl.glGetIntegerv(GL10.GL_MAX_TEXTURE_SIZE, maxTextureSize);
+        tilingThreshold = Math.min(tilingThreshold, maxTextureSize.get(0));
+
         infoLabel = new Sprite(Assets.getWhiteTex());
         infoLabel.setPosition(0, 0);
         infoLabel.setSize(110, 55);
@@ -95,7 +125,8 @@ public class Canvas extends ApplicationAdapter {
         lblRemoveVertices = new Label(15 + lblH * 2, 120, lblH, "Remove points", font, lblC, Anchor.TOP_RIGHT);
         lblInsertVertices = new Label(20 + lblH * 3, 120, lblH, "Insert points", font, lblC, Anchor.TOP_RIGHT);
         lblMoveInsideVertices = new Label(25 + lblH * 4, 120, lblH, "Move points inside boundary", font, lblC, Anchor.TOP_RIGHT);
-        labels.addAll(Arrays.asList(lblModeCreation, lblModeEdition, lblClearVertices, lblInsertVertices, lblRemoveVertices, lblMoveInsideVertices));
+        lblAutoTrace = new Label(30 + lblH * 5, 120, lblH, "Auto-trace from alpha", font, lblC, Anchor.TOP_RIGHT);
+        labels.addAll(Arrays.asList(lblModeCreation, lblModeEdition, lblClearVertices, lblInsertVertices, lblRemoveVertices, lblMoveInsideVertices, lblAutoTrace));
 
         Label.TouchCallback modeLblCallback = new Label.TouchCallback() {
             @Override
@@ -149,9 +180,24 @@ public class Canvas extends ApplicationAdapter {
             }
         });
 
+        lblAutoTrace.setCallback(new Label.TouchCallback() {
+            @Override
+            public void touchDown(Label source) {
+                autoTrace();
+            }
+        });
+
         panZoom = new PanZoomInputProcessor(this);
 
+        selectedPoints.addChangeListener(new ChangeListener() {
+            @Override
+            public void propertyChanged(Object source, String propertyName) {
+                requestRendering();
+            }
+        });
+
         InputMultiplexer im = new InputMultiplexer();
+        im.addProcessor(renderRequestInputProcessor);
         im.addProcessor(modeInputProcessor);
         im.addProcessor(buttonsInputProcessor);
         im.addProcessor(panZoom);
@@ -166,6 +212,43 @@ public class Canvas extends ApplicationAdapter {
         }).repeat(-1, 0.3f).start(tweenManager);
     }
 
+    /**
+     * In continuous mode, every frame is redrawn and the buttons are updated
+     * periodically. Otherwise (the default), a frame is only drawn after a
+     * call to requestRendering(), which is done on input events, selection
+     * changes and image changes, and while label animations are running.
+     */
+    public void setContinuousRendering(boolean continuousRendering) {
+        this.continuousRendering = continuousRendering;
+        requestRendering();
+    }
+
+    public boolean isContinuousRendering() {
+        return continuousRendering;
+    }
+
+    /**
+     * Asks for the canvas to be redrawn. Can be called from any thread.
+     */
+    public void requestRendering() {
+        changed.set(true);
+        pendingFrames.set(2); // both buffers of the swap chain
+        if (Gdx.graphics != null) {
+            Gdx.graphics.requestRendering();
+        }
+    }
+
+    private final InputProcessor renderRequestInputProcessor = new InputProcessor() {
+        @Override public boolean keyDown(int keycode) {requestRendering(); return false;}
+        @Override public boolean keyUp(int keycode) {requestRendering(); return false;}
+        @Override public boolean keyTyped(char character) {requestRendering(); return false;}
+        @Override public boolean touchDown(int x, int y, int pointer, int button) {requestRendering(); return false;}
+        @Override public boolean touchUp(int x, int y, int pointer, int button) {requestRendering(); return false;}
+        @Override public boolean touchDragged(int x, int y, int pointer) {requestRendering(); return false;}
+        @Override public boolean touchMoved(int x, int y) {requestRendering(); return false;}
+        @Override public boolean scrolled(int amount) {requestRendering(); return false;}
+    };
+
     private final InputProcessor modeInputProcessor = new InputAdapter() {
         @Override
         public boolean keyDown(int keycode) {
@@ -203,9 +286,27 @@ public class Canvas extends ApplicationAdapter {
 
     @Override
     public void render() {
-        panZoom.update(Gdx.graphics.getDeltaTime());
+        if (panZoom.update(Gdx.graphics.getDeltaTime())) {
+            requestRendering();
+        }
 
-        tweenManager.update(Gdx.graphics.getDeltaTime());
+        if (continuousRendering) {
+            tweenManager.update(Gdx.graphics.getDeltaTime());
+        } else {
+            // Requests come from other threads too: a request made while the
+            // count is decremented must not be lost, so the count is only
+            // decremented if it didn't change in the meantime
+            int frames = pendingFrames.get();
+            if (frames == 0 && !isAnimating()) {
+                return;
+            }
+            if (frames > 0) {
+                pendingFrames.compareAndSet(frames, frames - 1);
+            }
+            if (changed.getAndSet(false)) {
+                updateButtons();
+            }
+        }
 
         Gdx.gl.glClearColor(bgColor.r, bgColor.g, bgColor.b, 1f);
         Gdx.gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
@@ -222,14 +323,24 @@ public class Canvas extends ApplicationAdapter {
         batch.end();
 
         if (selectedModel != null) {
-            batch.setProjectionMatrix(camera.combined);
-            batch.begin();
-            sprite.setColor(1, 1, 1, spriteOpacity);
-            sprite.draw(batch);
-            batch.end();
+            if (sprite != null) {
+                batch.setProjectionMatrix(camera.combined);
+                batch.begin();
+                sprite.setColor(1, 1, 1, spriteOpacity);
+                sprite.draw(batch);
+                batch.end();
+            }
+
+            if (tiledImage != null) {
+                batch.setProjectionMatrix(camera.combined);
+                batch.begin();
+                batch.setColor(1, 1, 1, spriteOpacity);
+                tiledImage.draw(batch, camera);
+                batch.end();
+            }
 
-            if (drawBoundingBox) {
-                drawer.drawBoundingBox(sprite);
+            if (drawBoundingBox || (sprite == null && tiledImage == null)) {
+                drawer.drawBoundingBox(selectedModel.getWidth(), selectedModel.getHeight());
             }
             drawer.drawModel(selectedModel, selectedPoints, nextPoint, nearestPoint, drawTriangles, mode == Mode.CREATION);
             drawer.drawMouseSelection(mouseSelectionP1, mouseSelectionP2);
@@ -247,12 +358,26 @@ public class Canvas extends ApplicationAdapter {
         batch.end();
     }
 
+    @Override
+    public void dispose() {
+        liveTriangulator.dispose();
+        drawer.dispose();
+        if (sprite != null) {
+            textureCache.release(sprite.getTexture());
+        }
+        if (tiledImage != null) {
+            tiledImage.dispose();
+        }
+        textureCache.dispose();
+    }
+
     @Override
     public void resize(int width, int height) {
         Gdx.gl.glViewport(0, 0, width, height);
         camera.viewportWidth = width;
         camera.viewportHeight = height;
         camera.update();
+        requestRendering();
     }
 
     public Vector2 screenToWorld(int x, int y) {
@@ -262,27 +387,106 @@ public class Canvas extends ApplicationAdapter {
     }
 
     public void setImage(ImageModel img) {
+        liveTriangulator.cancel();
+        if (spriteCallback != null) {
+            // the previous image is not needed anymore, let the new one
+            // be decoded first
+            textureCache.cancel(selectedModel.file, spriteCallback);
+            spriteCallback = null;
+        }
         selectedModel = img;
+        requestRendering();
 
-        if (img == null) {
+        if (sprite != null) {
+            textureCache.release(sprite.getTexture());
             sprite = null;
+        }
+        if (tiledImage != null) {
+            tiledImage.dispose();
+            tiledImage = null;
+        }
+        if (img == null) {
             return;
         }
-        if (sprite != null) {
-            sprite.getTexture().dispose();
+
+        camera.position.set(img.getWidth() / 2, img.getHeight() / 2, 0);
+        camera.update();
+
+        if (isTiled(img)) {
+            try {
+                tiledImage = new TiledImage(img.file, Math.min(2048, tilingThreshold), new Runnable() {
+                    @Override
+                    public void run() {
+                        requestRendering();
+                    }
+                });
+            } catch (IOException ex) {
+                Gdx.app.error("Canvas", "Cannot open " + img.file.getPath(), ex);
+            }
+            return;
         }
 
-        Texture tex = new Texture(Gdx.files.absolute(img.file.getPath()));
-        tex.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
-        sprite = new Sprite(tex);
+        final ImageModel model = img;
+        spriteCallback = new TextureCache.Callback() {
+            @Override
+            public void loaded(Texture tex) {
+                spriteCallback = null;
+                if (selectedModel != model || sprite != null) {
+                    textureCache.release(tex);
+                    return;
+                }
+                tex.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+                sprite = new Sprite(tex);
+                requestRendering();
+            }
 
-        camera.position.set(sprite.getWidth() / 2, sprite.getHeight() / 2, 0);
-        camera.update();
+            @Override
+            public void failed(File file) {
+                spriteCallback = null;
+                if (selectedModel == model) {
+                    Gdx.app.error("Canvas", "Cannot open " + file.getPath());
+                }
+            }
+        };
+        textureCache.acquireAsync(img.file, spriteCallback);
+    }
+
+    /**
+     * Decodes the images of the given models in the background, so that
+     * selecting them later doesn't stall. Replaces the previous prefetches
+     * that didn't start yet.
+     */
+    public void prefetch(ImageModel... imgs) {
+        List<File> files = new ArrayList<File>(imgs.length);
+        for (ImageModel img : imgs) {
+            if (img != null && !isTiled(img)) {
+                files.add(img.file);
+            }
+        }
+        textureCache.prefetch(files);
     }
 
     // -------------------------------------------------------------------------
     // Internals
     // -------------------------------------------------------------------------
+    /**
+     * Images larger than the tiling threshold (by default the maximum texture
+     * size, capped to 4096) are streamed as tiles instead of being loaded
+     * in a single texture.
+     */
+    private boolean isTiled(ImageModel img) {
+        return Math.max(img.getWidth(), img.getHeight()) > tilingThreshold;
+    }
+
+    private boolean isAnimating() {
+        for (Label label : labels) {
+            if (label.isAnimating()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void updateButtons() {
         if (selectedModel != null && mode == null) {
             setMode(Mode.CREATION);
@@ -310,6 +514,11 @@ public class Canvas extends ApplicationAdapter {
         } else {
             lblMoveInsideVertices.hide();
         }
+        if (isAutoTraceEnabled()) {
+            lblAutoTrace.show();
+        } else {
+            lblAutoTrace.hide();
+        }
     }
 
     private void clearPoints() {
@@ -326,19 +535,30 @@ public class Canvas extends ApplicationAdapter {
         }
         List<Vector2> toAdd = new ArrayList<Vector2>();
 
+        List<Vector2> result = new ArrayList<Vector2>();
+
         for (Shape shape : selectedModel.shapes) {
             List<Vector2> vs = shape.vertices;
+            int added = toAdd.size();
+            result.clear();
 
             for (int i = 0; i < vs.size(); i++) {
                 Vector2 p1 = vs.get(i);
                 Vector2 p2 = i != vs.size() - 1 ? vs.get(i + 1) : vs.get(0);
+                result.add(p1);
 
                 if (selectedPoints.contains(p1) && selectedPoints.contains(p2)) {
                     Vector2 p = new Vector2((p1.x + p2.x) / 2, (p1.y + p2.y) / 2);
-                    vs.add(i + 1, p);
+                    result.add(p);
                     toAdd.add(p);
                 }
             }
+
+            if (toAdd.size() > added) {
+                vs.clear();
+                vs.addAll(result);
+                shape.invalidate();
+            }
         }
 
         selectedPoints.addAll(toAdd);
@@ -351,12 +571,19 @@ public class Canvas extends ApplicationAdapter {
         }
 
         for (int i = selectedModel.shapes.size() - 1; i >= 0; i--) {
-            List<Vector2> vs = selectedModel.shapes.get(i).vertices;
-            for (Vector2 p : selectedPoints) {
-                if (vs.contains(p)) {
-                    vs.remove(p);
+            Shape shape = selectedModel.shapes.get(i);
+            List<Vector2> vs = shape.vertices;
+            int kept = 0;
+            for (int j = 0; j < vs.size(); j++) {
+                Vector2 p = vs.get(j);
+                if (!selectedPoints.contains(p)) {
+                    vs.set(kept++, p);
                 }
             }
+            if (kept < vs.size()) {
+                vs.subList(kept, vs.size()).clear();
+                shape.invalidate();
+            }
             if (vs.size() < 3) {
                 selectedModel.shapes.remove(i);
             }
@@ -374,21 +601,74 @@ public class Canvas extends ApplicationAdapter {
 
         if (!selectedPoints.isEmpty()) {
             for (Vector2 p : selectedPoints) {
-                p.set(Math.max(Math.min(p.x, sprite.getWidth()), 0f), Math.max(Math.min(p.y, sprite.getHeight()), 0f));
+                p.set(Math.max(Math.min(p.x, selectedModel.getWidth()), 0f), Math.max(Math.min(p.y, selectedModel.getHeight()), 0f));
             }
+            selectedModel.invalidateShapesOf(selectedPoints);
             selectedPoints.clear();
         }
         else {
             for (int i = selectedModel.shapes.size() - 1; i >= 0; i--) {
                 List<Vector2> vs = selectedModel.shapes.get(i).vertices;
                 for (Vector2 p : vs) {
-                    p.set(Math.max(Math.min(p.x, sprite.getWidth()), 0f), Math.max(Math.min(p.y, sprite.getHeight()), 0f));
+                    p.set(Math.max(Math.min(p.x, selectedModel.getWidth()), 0f), Math.max(Math.min(p.y, selectedModel.getHeight()), 0f));
                 }
+                selectedModel.shapes.get(i).invalidate();
             }
         }
         selectedModel.triangulate();
     }
 
+    /**
+     * Replaces the shapes of the selected model by the outlines traced from
+     * the alpha channel of its image. The image is traced on a background
+     * thread, the shapes are replaced on the GL thread.
+     */
+    private void autoTrace() {
+        if (!isAutoTraceEnabled()) {
+            return;
+        }
+
+        final ImageModel model = selectedModel;
+        tracedModel = model;
+        requestRendering();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<Shape> shapes = null;
+                try {
+                    shapes = tracer.trace(model.file);
+                } catch (IOException ex) {
+                    Gdx.app.error("Canvas", "Cannot trace " + model.file.getPath(), ex);
+                }
+
+                final List<Shape> result = shapes;
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        tracedModel = null;
+                        if (result != null) {
+                            if (model == selectedModel) {
+                                selectedPoints.clear();
+                                nextPoint = null;
+                                nearestPoint = null;
+                            }
+                            AlphaTracer.apply(model, result);
+                            model.triangulate();
+                        }
+                        requestRendering();
+                    }
+                });
+            }
+        }, "Auto-trace");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private boolean isAutoTraceEnabled() {
+        return selectedModel != null && tracedModel == null;
+    }
+
     private boolean isClearEnabled() {
         if (selectedModel == null) {
             return false;
@@ -4,12 +4,18 @@ import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL10;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.graphics.g2d.Sprite;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
-import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Aurelien Ribon | http://www.aurelienribon.com/
@@ -22,9 +28,32 @@ public class CanvasDrawer {
 	private static final Color MOUSESELECTION_STROKE_COLOR = new Color(0.2f, 0.2f, 0.8f, 0.6f);
 	private static final Color AXIS_COLOR = new Color(0.5f, 0.5f, 0.5f, 1);
 
+	private static final String LINE_VERTEX_SHADER =
+		"attribute vec4 " + ShaderProgram.POSITION_ATTRIBUTE + ";\n" +
+		"uniform mat4 u_projTrans;\n" +
+		"void main() {\n" +
+		"	gl_Position = u_projTrans * " + ShaderProgram.POSITION_ATTRIBUTE + ";\n" +
+		"}\n";
+	private static final String LINE_FRAGMENT_SHADER =
+		"#ifdef GL_ES\n" +
+		"precision mediump float;\n" +
+		"#endif\n" +
+		"uniform vec4 u_color;\n" +
+		"void main() {\n" +
+		"	gl_FragColor = u_color;\n" +
+		"}\n";
+
 	private final ShapeRenderer drawer = new ShapeRenderer();
 	private final OrthographicCamera camera;
 
+	// Triangles overlay, uploaded once per triangulation
+	private ShaderProgram lineShader;
+	private Mesh trianglesMesh;
+	private ImageModel trianglesMeshModel;
+	private int trianglesMeshVersion;
+	private int trianglesMeshVertexCount;
+	private float[] trianglesMeshData = new float[0];
+
 	public CanvasDrawer(OrthographicCamera camera) {
 		this.camera = camera;
 	}
@@ -33,32 +62,27 @@ public class CanvasDrawer {
 	// Public API
 	// -------------------------------------------------------------------------
 
-	public void drawModel(ImageModel model, List<Vector2> selectedPoints, Vector2 nextPoint, Vector2 nearestPoint, boolean drawTriangles, boolean creation) {
+	public void drawModel(ImageModel model, Set<Vector2> selectedPoints, Vector2 nextPoint, Vector2 nearestPoint, boolean drawTriangles, boolean creation) {
 		if (model == null) return;
 		drawer.setProjectionMatrix(camera.combined);
+
+		Gdx.gl.glLineWidth(2);
+		Gdx.gl.glEnable(GL10.GL_BLEND);
+		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+
 		if (drawTriangles) drawTriangles(model);
-		for (Shape shape : model.shapes) drawShape(shape, nextPoint);
-		for (Shape shape : model.shapes) drawPoints(shape, selectedPoints, nearestPoint);
+		drawShapes(model.shapes, nextPoint);
+		drawPoints(model.shapes, selectedPoints, nearestPoint);
 		if (creation) drawNextPoint(nextPoint);
 	}
 
 	public void drawBoundingBox(Sprite sp) {
 		if (sp == null) return;
-		drawer.setProjectionMatrix(camera.combined);
 		drawBoundingBox(sp.getWidth(), sp.getHeight());
 	}
 
-	public void drawMouseSelection(Vector2 p1, Vector2 p2) {
-		if (p1 == null || p2 == null) return;
+	public void drawBoundingBox(float w, float h) {
 		drawer.setProjectionMatrix(camera.combined);
-		drawMouseSelection(p1.x, p1.y, p2.x, p2.y);
-	}
-
-	// -------------------------------------------------------------------------
-	// Internals
-	// -------------------------------------------------------------------------
-
-	private void drawBoundingBox(float w, float h) {
 		Gdx.gl.glLineWidth(1);
 		Gdx.gl.glEnable(GL10.GL_BLEND);
 		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
@@ -69,105 +93,187 @@ public class CanvasDrawer {
 		drawer.end();
 	}
 
-	private void drawShape(Shape shape, Vector2 nextPoint) {
-		Gdx.gl.glLineWidth(2);
-		Gdx.gl.glEnable(GL10.GL_BLEND);
-		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+	public void drawMouseSelection(Vector2 p1, Vector2 p2) {
+		if (p1 == null || p2 == null) return;
+		drawer.setProjectionMatrix(camera.combined);
+		drawMouseSelection(p1.x, p1.y, p2.x, p2.y);
+	}
 
-		List<Vector2> vs = shape.vertices;
-		if (vs.isEmpty()) return;
+	public void dispose() {
+		drawer.dispose();
+		if (trianglesMesh != null) trianglesMesh.dispose();
+		if (lineShader != null) lineShader.dispose();
+		trianglesMesh = null;
+		trianglesMeshModel = null;
+		lineShader = null;
+	}
 
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private void drawShapes(List<Shape> shapes, Vector2 nextPoint) {
 		drawer.begin(ShapeRenderer.ShapeType.Line);
-		drawer.setColor(SHAPE_COLOR);
 
-		for (int i=1; i<vs.size(); i++) drawer.line(vs.get(i).x, vs.get(i).y, vs.get(i-1).x, vs.get(i-1).y);
+		for (int j=0, nj=shapes.size(); j<nj; j++) {
+			Shape shape = shapes.get(j);
+			List<Vector2> vs = shape.vertices;
+			if (vs.isEmpty()) continue;
 
-		if (shape.closed) {
 			drawer.setColor(SHAPE_COLOR);
-			drawer.line(vs.get(0).x, vs.get(0).y, vs.get(vs.size()-1).x, vs.get(vs.size()-1).y);
-		} else {
-			drawer.setColor(SHAPE_LASTLINE_COLOR);
-			drawer.line(vs.get(vs.size()-1).x, vs.get(vs.size()-1).y, nextPoint.x, nextPoint.y);
+			for (int i=1, n=vs.size(); i<n; i++) drawer.line(vs.get(i).x, vs.get(i).y, vs.get(i-1).x, vs.get(i-1).y);
+
+			Vector2 last = vs.get(vs.size()-1);
+			if (shape.closed) {
+				drawer.line(vs.get(0).x, vs.get(0).y, last.x, last.y);
+			} else if (nextPoint != null) {
+				drawer.setColor(SHAPE_LASTLINE_COLOR);
+				drawer.line(last.x, last.y, nextPoint.x, nextPoint.y);
+			}
 		}
 
 		drawer.end();
 	}
 
-	private void drawPoints(Shape shape, List<Vector2> selectedPoints, Vector2 nearestPoint) {
-		Gdx.gl.glLineWidth(2);
-		Gdx.gl.glEnable(GL10.GL_BLEND);
-		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-
+	/**
+	 * Draws the vertex handles in two passes, one per handle type, instead
+	 * of one begin()/end() pair per vertex.
+	 */
+	private void drawPoints(List<Shape> shapes, Set<Vector2> selectedPoints, Vector2 nearestPoint) {
 		float w = 10 * camera.zoom;
 
-		for (Vector2 p : shape.vertices) {
-			if (p == nearestPoint || (selectedPoints != null && selectedPoints.contains(p))) {
-				drawer.begin(ShapeRenderer.ShapeType.FilledRectangle);
-				drawer.setColor(SHAPE_COLOR);
-				drawer.filledRect(p.cpy().sub(w/2, w/2).x, p.cpy().sub(w/2, w/2).y, w, w);
-				drawer.end();
-			} else {
-				drawer.begin(ShapeRenderer.ShapeType.Rectangle);
-				drawer.setColor(SHAPE_COLOR);
-				drawer.rect(p.cpy().sub(w/2, w/2).x, p.cpy().sub(w/2, w/2).y, w, w);
-				drawer.end();
+		drawer.begin(ShapeRenderer.ShapeType.Rectangle);
+		drawer.setColor(SHAPE_COLOR);
+		for (int j=0, nj=shapes.size(); j<nj; j++) {
+			List<Vector2> vs = shapes.get(j).vertices;
+			for (int i=0, n=vs.size(); i<n; i++) {
+				Vector2 p = vs.get(i);
+				if (!isHighlighted(p, selectedPoints, nearestPoint)) drawer.rect(p.x - w/2, p.y - w/2, w, w);
+			}
+		}
+		drawer.end();
+
+		if (nearestPoint == null && (selectedPoints == null || selectedPoints.isEmpty())) return;
+
+		drawer.begin(ShapeRenderer.ShapeType.FilledRectangle);
+		drawer.setColor(SHAPE_COLOR);
+		for (int j=0, nj=shapes.size(); j<nj; j++) {
+			List<Vector2> vs = shapes.get(j).vertices;
+			for (int i=0, n=vs.size(); i<n; i++) {
+				Vector2 p = vs.get(i);
+				if (isHighlighted(p, selectedPoints, nearestPoint)) drawer.filledRect(p.x - w/2, p.y - w/2, w, w);
 			}
 		}
+		drawer.end();
 	}
 
-	private void drawNextPoint(Vector2 nextPoint) {
-		Gdx.gl.glLineWidth(2);
-		Gdx.gl.glEnable(GL10.GL_BLEND);
-		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+	private boolean isHighlighted(Vector2 p, Set<Vector2> selectedPoints, Vector2 nearestPoint) {
+		return p == nearestPoint || (selectedPoints != null && selectedPoints.contains(p));
+	}
 
+	private void drawNextPoint(Vector2 nextPoint) {
 		float w = 10 * camera.zoom;
 
 		if (nextPoint != null) {
 			drawer.begin(ShapeRenderer.ShapeType.Rectangle);
 			drawer.setColor(SHAPE_LASTLINE_COLOR);
-			drawer.rect(nextPoint.cpy().sub(w/2, w/2).x, nextPoint.cpy().sub(w/2, w/2).y, w, w);
+			drawer.rect(nextPoint.x - w/2, nextPoint.y - w/2, w, w);
 			drawer.end();
 		}
 	}
 
 	private void drawTriangles(ImageModel model) {
-		Gdx.gl.glLineWidth(2);
-		Gdx.gl.glEnable(GL10.GL_BLEND);
-		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+		if (Gdx.graphics.isGL20Available()) {
+			drawTrianglesMesh(model);
+			return;
+		}
 
 		drawer.begin(ShapeRenderer.ShapeType.Triangle);
 		drawer.setColor(TRIANGLE_COLOR);
 
-		List<Vector2> vs = model.trianglesVertices;
+		float[] vs = model.trianglesVertices.getItems();
 
-		for (int i=2; i<vs.size(); i+=3) {
+		for (int i=2, n=model.trianglesVertices.size(); i<n; i+=3) {
 			drawer.triangle(
-				vs.get(i).x, vs.get(i).y,
-				vs.get(i-1).x, vs.get(i-1).y,
-				vs.get(i-2).x, vs.get(i-2).y);
+				vs[i*2], vs[i*2+1],
+				vs[i*2-2], vs[i*2-1],
+				vs[i*2-4], vs[i*2-3]);
 		}
 
 		drawer.end();
 	}
 
+	/**
+	 * Draws the triangle edges from a static mesh, which is only re-uploaded
+	 * when the model triangulation changes. Panning and zooming then cost a
+	 * single draw call.
+	 */
+	private void drawTrianglesMesh(ImageModel model) {
+		if (lineShader == null) {
+			lineShader = new ShaderProgram(LINE_VERTEX_SHADER, LINE_FRAGMENT_SHADER);
+			if (!lineShader.isCompiled()) throw new GdxRuntimeException(lineShader.getLog());
+		}
+
+		if (model != trianglesMeshModel || model.getTrianglesVersion() != trianglesMeshVersion) {
+			updateTrianglesMesh(model);
+		}
+
+		if (trianglesMeshVertexCount == 0) return;
+
+		lineShader.begin();
+		lineShader.setUniformMatrix("u_projTrans", camera.combined);
+		lineShader.setUniformf("u_color", TRIANGLE_COLOR);
+		trianglesMesh.render(lineShader, GL20.GL_LINES, 0, trianglesMeshVertexCount);
+		lineShader.end();
+	}
+
+	private void updateTrianglesMesh(ImageModel model) {
+		float[] vs = model.trianglesVertices.getItems();
+		int triangleCount = model.trianglesVertices.size() / 3;
+		int vertexCount = triangleCount * 6;
+
+		if (trianglesMeshData.length < vertexCount * 2) trianglesMeshData = new float[vertexCount * 2];
+		float[] data = trianglesMeshData;
+		int k = 0;
+
+		for (int i=0; i<triangleCount; i++) {
+			int j = i*6;
+			float ax = vs[j], ay = vs[j+1], bx = vs[j+2], by = vs[j+3], cx = vs[j+4], cy = vs[j+5];
+			data[k++] = ax; data[k++] = ay; data[k++] = bx; data[k++] = by;
+			data[k++] = bx; data[k++] = by; data[k++] = cx; data[k++] = cy;
+			data[k++] = cx; data[k++] = cy; data[k++] = ax; data[k++] = ay;
+		}
+
+		if (vertexCount > 0 && (trianglesMesh == null || trianglesMesh.getMaxVertices() < vertexCount)) {
+			if (trianglesMesh != null) trianglesMesh.dispose();
+			trianglesMesh = new Mesh(true, Math.max(vertexCount, 1024) * 3 / 2, 0,
+				new VertexAttribute(Usage.Position, 2, ShaderProgram.POSITION_ATTRIBUTE));
+		}
+
+		if (vertexCount > 0) trianglesMesh.setVertices(data, 0, vertexCount * 2);
+		trianglesMeshVertexCount = vertexCount;
+		trianglesMeshModel = model;
+		trianglesMeshVersion = model.getTrianglesVersion();
+	}
+
 	private void drawMouseSelection(float x1, float y1, float x2, float y2) {
 		Gdx.gl.glLineWidth(3);
 		Gdx.gl.glEnable(GL10.GL_BLEND);
 		Gdx.gl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
 
-		Rectangle rect = new Rectangle(
-			Math.min(x1, x2), Math.min(y1, y2),
-			Math.abs(x2 - x1), Math.abs(y2 - y1)
-		);
+		float x = Math.min(x1, x2);
+		float y = Math.min(y1, y2);
+		float w = Math.abs(x2 - x1);
+		float h = Math.abs(y2 - y1);
 
 		drawer.begin(ShapeRenderer.ShapeType.FilledRectangle);
 		drawer.setColor(MOUSESELECTION_FILL_COLOR);
-		drawer.filledRect(rect.x, rect.y, rect.width, rect.height);
+		drawer.filledRect(x, y, w, h);
 		drawer.end();
 
 		drawer.begin(ShapeRenderer.ShapeType.Rectangle);
 		drawer.setColor(MOUSESELECTION_STROKE_COLOR);
-		drawer.rect(rect.x, rect.y, rect.width, rect.height);
+		drawer.rect(x, y, w, h);
 		drawer.end();
 	}
 }
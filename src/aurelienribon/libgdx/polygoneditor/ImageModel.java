@@ -1,14 +1,19 @@
 package aurelienribon.libgdx.polygoneditor;
 
+import aurelienribon.utils.gdx.EarClipper;
+import aurelienribon.utils.gdx.Vector2Array;
+import aurelienribon.utils.io.ImageSizeHelper;
 import aurelienribon.utils.notifications.ChangeableObject;
-import com.badlogic.gdx.math.EarClippingTriangulator;
 import com.badlogic.gdx.math.Vector2;
-import java.awt.image.BufferedImage;
+import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import javax.imageio.ImageIO;
+import java.util.Set;
 
 /**
  * @author Aurelien Ribon | http://www.aurelienribon.com/
@@ -16,38 +21,359 @@ import javax.imageio.ImageIO;
 public class ImageModel extends ChangeableObject {
 	public final File file;
 	public final List<ImageModel.Shape> shapes = new ArrayList<ImageModel.Shape>();
-	public final List<Vector2> trianglesVertices = new ArrayList<Vector2>();
-	public final List<Vector2> trianglesUVs = new ArrayList<Vector2>();
-	private final float w, h;
+	public final Vector2Array trianglesVertices = new Vector2Array();
+	public final Vector2Array trianglesUVs = new Vector2Array();
+	private float w, h;
+	private Loader loader;
+	private final List<ImageModel.Shape> triangulatedShapes = new ArrayList<ImageModel.Shape>();
+	private boolean trianglesValid = false;
+	private int trianglesVersion = 0;
+	private EarClipper clipper;
+	private int indexedVersion = -1;
+	private IndexedMesh indexedMesh;
+	private ModelSnapshot snapshot;
 
 	public ImageModel(File file) throws IOException {
 		this.file = file.getCanonicalFile();
 
-		BufferedImage img = ImageIO.read(file);
-		w = img.getWidth();
-		h = img.getHeight();
+		Dimension size = ImageSizeHelper.getSize(this.file);
+		w = size.width;
+		h = size.height;
+	}
+
+	/**
+	 * Creates a model whose image size is already known (or -1 to read it
+	 * when first needed), and whose shapes will be read by the loader when
+	 * load() is called. A null loader makes an empty, loaded model.
+	 */
+	ImageModel(File file, float w, float h, Loader loader) throws IOException {
+		this.file = file.getCanonicalFile();
+		this.w = w;
+		this.h = h;
+		this.loader = loader;
+	}
+
+	/**
+	 * Reads the shapes of a model from a saved project.
+	 */
+	public interface Loader {
+		public void load(ImageModel model) throws IOException;
+	}
+
+	/**
+	 * Gets the width of the image. For models loaded lazily, the image
+	 * header is read on the first call, and 0 is returned if it fails.
+	 */
+	public float getWidth() {
+		if (w < 0) readSizeQuietly();
+		return w;
+	}
+
+	public float getHeight() {
+		if (h < 0) readSizeQuietly();
+		return h;
+	}
+
+	private void readSize() throws IOException {
+		w = h = 0;
+		Dimension size = ImageSizeHelper.getSize(file);
+		w = size.width;
+		h = size.height;
+	}
+
+	private void readSizeQuietly() {
+		try {
+			readSize();
+		} catch (IOException ex) {
+		}
+	}
+
+	/**
+	 * Returns false if the shapes of the model are still in its project file.
+	 */
+	public synchronized boolean isLoaded() {
+		return loader == null;
+	}
+
+	/**
+	 * Reads the shapes of a model that was loaded lazily, and triangulates
+	 * them. Does nothing if the model is already loaded. Until then, the
+	 * model has no shapes.
+	 */
+	public synchronized void load() throws IOException {
+		if (loader == null) return;
+		if (w < 0 || h < 0) readSize();
+
+		try {
+			loader.load(this);
+		} catch (IOException ex) {
+			shapes.clear();
+			throw ex;
+		}
+
+		loader = null;
+		triangulate();
 	}
 
 	public static class Shape {
 		public final List<Vector2> vertices = new ArrayList<Vector2>();
 		public boolean closed;
+
+		private int version = 0;
+		private int triangulatedVersion = -1;
+		private int triangulatedSize = -1;
+		private boolean triangulatedClosed;
+		private final Vector2Array triangles = new Vector2Array();
+		private final Vector2Array uvs = new Vector2Array();
+		private ShapeSnapshot snapshot;
+
+		/**
+		 * Marks the shape as modified. Must be called after the vertices are
+		 * moved, added or removed, so that the shape gets re-triangulated.
+		 */
+		public void invalidate() {
+			version++;
+		}
+
+		public int getVersion() {
+			return version;
+		}
+
+		/**
+		 * Gets the number of triangle vertices produced by the last
+		 * triangulation of the shape, which are stored consecutively in
+		 * trianglesVertices.
+		 */
+		public int getTrianglesCount() {
+			return triangles.size();
+		}
+
+		/**
+		 * Sets triangles computed beforehand (read from a saved project) as
+		 * the triangulation of the current vertices.
+		 */
+		void setTriangles(Vector2Array triangles, Vector2Array uvs) {
+			this.triangles.clear();
+			this.triangles.addAll(triangles);
+			this.uvs.clear();
+			this.uvs.addAll(uvs);
+
+			triangulatedVersion = version;
+			triangulatedSize = vertices.size();
+			triangulatedClosed = closed;
+		}
+
+		/**
+		 * Gets an immutable copy of the shape, reusing the last one if the
+		 * shape didn't change. The triangles are copied too if they are up
+		 * to date.
+		 */
+		ShapeSnapshot snapshot(float w, float h) {
+			boolean triangulated = isTriangulationValid();
+
+			if (snapshot != null && snapshot.getVersion() == version
+				&& snapshot.getVertexCount() == vertices.size() && snapshot.isClosed() == closed) {
+				if (triangulated && !snapshot.isTriangulated()) {
+					snapshot = snapshot.withTriangles(ShapeSnapshot.copy(triangles), ShapeSnapshot.copy(uvs));
+				}
+				return snapshot;
+			}
+
+			float[] coords = new float[vertices.size() * 2];
+			for (int i=0; i<vertices.size(); i++) {
+				Vector2 v = vertices.get(i);
+				coords[i*2] = v.x;
+				coords[i*2+1] = v.y;
+			}
+
+			snapshot = triangulated
+				? new ShapeSnapshot(coords, closed, version, w, h, ShapeSnapshot.copy(triangles), ShapeSnapshot.copy(uvs))
+				: new ShapeSnapshot(coords, closed, version, w, h, null, null);
+			return snapshot;
+		}
+
+		boolean isTriangulationValid() {
+			return triangulatedVersion == version
+				&& triangulatedSize == vertices.size()
+				&& triangulatedClosed == closed;
+		}
+
+		private void triangulate(EarClipper clipper, float w, float h) {
+			triangles.clear();
+			uvs.clear();
+
+			if (vertices.size() >= 3 && closed) {
+				clipper.computeTriangles(vertices, triangles);
+				if (w > 0.1f && h > 0.1f) {
+					for (int i=0, n=triangles.size(); i<n; i++) uvs.add(triangles.getX(i)/w, 1-triangles.getY(i)/h);
+				}
+			}
+
+			triangulatedVersion = version;
+			triangulatedSize = vertices.size();
+			triangulatedClosed = closed;
+		}
 	}
 
+	/**
+	 * Re-triangulates the shapes that changed since the last call, and
+	 * rebuilds trianglesVertices and trianglesUVs from the per-shape results.
+	 * The buffers and the triangulator of the model are reused, so once
+	 * they are large enough, triangulating again doesn't allocate.
+	 */
 	public void triangulate() {
-		clearTriangles();
-		EarClippingTriangulator ect = new EarClippingTriangulator();
+		if (trianglesValid && !hasShapesChanged()) return;
 
-		for (ImageModel.Shape shape : shapes) {
-			if (shape.vertices.size() < 3 || !shape.closed) continue;
-			trianglesVertices.addAll(ect.computeTriangles(shape.vertices));
+		trianglesVertices.clear();
+		trianglesUVs.clear();
+		triangulatedShapes.clear();
+
+		for (int i=0, n=shapes.size(); i<n; i++) {
+			ImageModel.Shape shape = shapes.get(i);
+			if (!shape.isTriangulationValid()) {
+				if (clipper == null) clipper = new EarClipper();
+				shape.triangulate(clipper, getWidth(), getHeight());
+			}
+			trianglesVertices.addAll(shape.triangles);
+			trianglesUVs.addAll(shape.uvs);
+			triangulatedShapes.add(shape);
+		}
+
+		trianglesValid = true;
+		trianglesVersion++;
+	}
+
+	/**
+	 * Gets an immutable copy of the model, which can be saved, exported or
+	 * analyzed on other threads while the model keeps changing. It must be
+	 * called on the thread that modifies the model, and shapes must have
+	 * been invalidated after their vertices were moved, as for
+	 * triangulate(). The same snapshot is returned while nothing changed.
+	 * A model loaded lazily is loaded first.
+	 */
+	public ModelSnapshot snapshot() throws IOException {
+		load();
+
+		float w = getWidth(), h = getHeight();
+		List<ShapeSnapshot> shapeSnapshots = new ArrayList<ShapeSnapshot>(shapes.size());
+		boolean changed = snapshot == null || snapshot.getShapes().size() != shapes.size();
+
+		for (int i=0, n=shapes.size(); i<n; i++) {
+			ShapeSnapshot ss = shapes.get(i).snapshot(w, h);
+			shapeSnapshots.add(ss);
+			if (!changed && snapshot.getShapes().get(i) != ss) changed = true;
+		}
+
+		if (changed) {
+			int version = snapshot != null ? snapshot.getVersion() + 1 : 1;
+			snapshot = new ModelSnapshot(this, version, w, h, Collections.unmodifiableList(shapeSnapshots));
 		}
+		return snapshot;
+	}
 
-		if (w > 0.1f && h > 0.1f) {
-			for (Vector2 v : trianglesVertices) trianglesUVs.add(new Vector2(v.x/w, 1-v.y/h));
+	/**
+	 * Rebuilds trianglesVertices and trianglesUVs for display only, from
+	 * triangles computed elsewhere for some of the shapes, possibly for an
+	 * older version of their vertices, and from the last triangulation of
+	 * the other shapes. The model stays invalid, so that the next call to
+	 * triangulate() computes the exact triangles.
+	 */
+	void previewTriangles(List<Shape> someShapes, Vector2Array[] triangles, Vector2Array[] uvs) {
+		trianglesVertices.clear();
+		trianglesUVs.clear();
+
+		for (int i=0, n=shapes.size(); i<n; i++) {
+			ImageModel.Shape shape = shapes.get(i);
+			int idx = someShapes.indexOf(shape);
+			trianglesVertices.addAll(idx >= 0 ? triangles[idx] : shape.triangles);
+			trianglesUVs.addAll(idx >= 0 ? uvs[idx] : shape.uvs);
 		}
+
+		triangulatedShapes.clear();
+		trianglesValid = false;
+		trianglesVersion++;
 	}
 
+	/**
+	 * Gets a number that changes every time trianglesVertices and
+	 * trianglesUVs are modified, to know when derived data is stale.
+	 */
+	public int getTrianglesVersion() {
+		return trianglesVersion;
+	}
+
+	/**
+	 * Gets the distinct vertices of the triangles, as x,y pairs. Together
+	 * with getIndices(), this is an indexed version of trianglesVertices,
+	 * built on demand. The returned array must not be modified.
+	 */
+	public float[] getIndexedVertices() {
+		buildIndexedMesh();
+		return indexedMesh.getVertices();
+	}
+
+	/**
+	 * Gets the texture coordinates of the indexed vertices, as u,v pairs, or
+	 * an empty array if the image has no size. Must not be modified.
+	 */
+	public float[] getIndexedUVs() {
+		buildIndexedMesh();
+		return indexedMesh.getUVs();
+	}
+
+	/**
+	 * Gets the indices of the indexed vertices, three per triangle. They
+	 * are unsigned 16-bit values (read them with "& 0xFFFF"), so at most
+	 * 65536 distinct vertices are supported. Must not be modified.
+	 */
+	public short[] getIndices() {
+		buildIndexedMesh();
+		return indexedMesh.getIndices();
+	}
+
+	private void buildIndexedMesh() {
+		if (indexedVersion == trianglesVersion && indexedMesh != null) return;
+		int n = trianglesVertices.size();
+		float[] uvs = trianglesUVs.size() == n ? trianglesUVs.getItems() : null;
+		indexedMesh = IndexedMesh.build(trianglesVertices.getItems(), uvs, n, file.getPath());
+		indexedVersion = trianglesVersion;
+	}
+
+	private boolean hasShapesChanged() {
+		if (triangulatedShapes.size() != shapes.size()) return true;
+		for (int i=0; i<shapes.size(); i++) {
+			ImageModel.Shape shape = shapes.get(i);
+			if (shape != triangulatedShapes.get(i) || !shape.isTriangulationValid()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Invalidates every shape containing at least one of the given vertices.
+	 */
+	public void invalidateShapesOf(Collection<Vector2> vs) {
+		if (vs.isEmpty()) return;
+		Set<Vector2> set = Collections.newSetFromMap(new IdentityHashMap<Vector2, Boolean>());
+		set.addAll(vs);
+
+		for (ImageModel.Shape shape : shapes) {
+			for (Vector2 v : shape.vertices) {
+				if (set.contains(v)) {
+					shape.invalidate();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes every shape. If the model wasn't loaded yet, its saved shapes
+	 * are discarded and it becomes loaded.
+	 */
 	public void clear() {
+		synchronized (this) {
+			loader = null;
+		}
 		shapes.clear();
 		clearTriangles();
 	}
@@ -55,5 +381,8 @@ public class ImageModel extends ChangeableObject {
 	public void clearTriangles() {
 		trianglesVertices.clear();
 		trianglesUVs.clear();
+		triangulatedShapes.clear();
+		trianglesValid = false;
+		trianglesVersion++;
 	}
 }
@@ -1,12 +1,19 @@
 package aurelienribon.libgdx.polygoneditor;
 
 import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.io.FileReplaceHelper;
 import aurelienribon.utils.io.FilenameHelper;
+import aurelienribon.utils.io.ImageSizeHelper;
 import com.badlogic.gdx.math.Vector2;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
 
@@ -14,79 +21,352 @@ import org.apache.commons.io.FileUtils;
  * @author Aurelien Ribon | http://www.aurelienribon.com/
  */
 public class ImageModelIo {
+	private static final int FLUSH_THRESHOLD = 8 * 1024;
+
+	/**
+	 * Formats of saved projects. In text projects, shapes are always saved
+	 * as "s" lines, and are the only thing read back: triangles are
+	 * recomputed on load. Binary projects are detected when loading.
+	 */
+	public static enum Format {
+		/** One "v" line with 3 vertices per triangle, one "u" line with their texture coordinates. */
+		TEXT,
+		/** A "p" line with the distinct vertices, a "c" line with their texture coordinates and a "t" line with 3 indices per triangle. */
+		TEXT_INDEXED,
+		/** See BinaryProject. */
+		BINARY
+	}
+
+	/** Extension used by the editor for binary projects. */
+	public static final String BINARY_EXTENSION = "pshb";
+
+	/**
+	 * Follows a long operation, on the thread running it.
+	 */
+	public static interface Progress {
+		/**
+		 * Called regularly with the amount of work done, out of total.
+		 * Returning false cancels the operation, which then throws an
+		 * InterruptedIOException.
+		 */
+		public boolean update(long done, long total);
+	}
+
 	public static void save(File file, List<ImageModel> models) throws IOException {
-		String output = "";
+		save(file, models, new BatchTriangulator(), Format.TEXT);
+	}
 
-		for (int i=0; i<models.size(); i++) {
-			if (i > 0) output += "\n\n---\n\n";
-			models.get(i).triangulate();
+	public static void save(File file, List<ImageModel> models, Format format) throws IOException {
+		save(file, models, new BatchTriangulator(), format);
+	}
 
-			output += "i " + FilenameHelper.relativize(models.get(i).file.getPath(), file.getParent());
+	public static void save(File file, List<ImageModel> models, BatchTriangulator triangulator) throws IOException {
+		save(file, models, triangulator, Format.TEXT);
+	}
 
-			for (Shape shape : models.get(i).shapes) {
-				output += "\ns ";
-				List<Vector2> vs = shape.vertices;
-				for (Vector2 v : vs) output += (v == vs.get(0) ? "" : ",") + v.x + "," + v.y;
-			}
+	public static void save(File file, List<ImageModel> models, BatchTriangulator triangulator, Format format) throws IOException {
+		// lazy models must be read before the file is overwritten
+		for (ImageModel model : models) model.load();
+		triangulator.triangulate(models);
 
-			output += "\nv ";
-			List<Vector2> tvs = models.get(i).trianglesVertices;
-			for (Vector2 v : tvs) output += (v == tvs.get(0) ? "" : ",") + v.x + "," + v.y;
+		List<ModelSnapshot> snapshots = new ArrayList<ModelSnapshot>(models.size());
+		for (ImageModel model : models) snapshots.add(model.snapshot());
+		saveSnapshots(file, snapshots, format);
+	}
+
+	public static void saveSnapshots(File file, List<ModelSnapshot> models, Format format) throws IOException {
+		saveSnapshots(file, models, format, null);
+	}
 
-			output += "\nu ";
-			List<Vector2> uvs = models.get(i).trianglesUVs;
-			for (Vector2 v : uvs) output += (v == uvs.get(0) ? "" : ",") + v.x + "," + v.y;
+	/**
+	 * Writes snapshots of models. Unlike the other save methods, it can be
+	 * called from any thread, since the models themselves are not used.
+	 * Shapes that weren't triangulated when the snapshots were taken are
+	 * triangulated here. The project is written to a temporary file, which
+	 * replaces the file only when complete: if the save fails or is
+	 * cancelled, the previous file is left untouched.
+	 *
+	 * @param progress notified after each model, may be null.
+	 */
+	public static void saveSnapshots(File file, List<ModelSnapshot> models, Format format, Progress progress) throws IOException {
+		File tmp = FileReplaceHelper.createTempFile(file);
+		boolean written = false;
+
+		try {
+			if (format == Format.BINARY) BinaryProject.write(tmp, file.getAbsoluteFile().getParent(), models, progress);
+			else writeText(tmp, file.getParent(), models, format, progress);
+			FileReplaceHelper.replace(tmp, file);
+			written = true;
+		} finally {
+			if (!written) tmp.delete();
 		}
+	}
+
+	private static void writeText(File file, String base, List<ModelSnapshot> models, Format format, Progress progress) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(FileUtils.openOutputStream(file)), 64 * 1024);
+		StringBuilder sb = new StringBuilder(FLUSH_THRESHOLD + 64);
+		char[] chars = new char[FLUSH_THRESHOLD + 64];
+
+		try {
+			for (int i=0; i<models.size(); i++) {
+				ModelSnapshot model = models.get(i);
+				if (i > 0) writer.write("\n\n---\n\n");
+
+				writer.write("i ");
+				writer.write(FilenameHelper.relativize(model.getFile().getPath(), base));
+
+				for (ShapeSnapshot shape : model.getShapes()) {
+					writer.write("\ns ");
+					writeFloats(writer, sb, chars, shape.getCoords());
+				}
+
+				if (format == Format.TEXT_INDEXED) {
+					IndexedMesh mesh = model.getIndexedMesh();
 
-		FileUtils.writeStringToFile(file, output);
+					writer.write("\np ");
+					writeFloats(writer, sb, chars, mesh.getVertices());
+
+					writer.write("\nc ");
+					writeFloats(writer, sb, chars, mesh.getUVs());
+
+					writer.write("\nt ");
+					writeIndices(writer, sb, chars, mesh.getIndices());
+
+				} else {
+					writer.write("\nv ");
+					writeFloats(writer, sb, chars, model.getTriangles());
+
+					writer.write("\nu ");
+					writeFloats(writer, sb, chars, model.getTrianglesUVs());
+				}
+
+				report(progress, i+1, models.size());
+			}
+		} finally {
+			writer.close();
+		}
 	}
 
 	public static List<ImageModel> load(File file) throws IOException {
-		String input = FileUtils.readFileToString(file);
+		return load(file, new BatchTriangulator());
+	}
+
+	public static List<ImageModel> load(File file, BatchTriangulator triangulator) throws IOException {
+		if (BinaryProject.isBinary(file)) {
+			List<ImageModel> models = BinaryProject.open(file).getModels();
+			for (ImageModel model : models) model.load();
+			triangulator.triangulate(models);
+			return models;
+		}
+
 		List<ImageModel> models = new ArrayList<ImageModel>();
+		List<Shape> shapes = new ArrayList<Shape>();
+		String path = null;
+
+		PshReader reader = new PshReader(FileUtils.openInputStream(file));
+
+		try {
+			while (true) {
+				int tag = reader.nextLine();
 
-		String[] descriptions = input.split("---");
+				if (tag == PshReader.EOF || tag == PshReader.SEPARATOR) {
+					if (path != null) models.add(createModel(file, path, shapes));
+					if (tag == PshReader.EOF) break;
+					path = null;
+					shapes.clear();
 
-		for (String descrption : descriptions) {
-			List<String> lines = new ArrayList<String>(Arrays.asList(descrption.trim().split("\n")));
+				} else if (tag == 'i' && path == null) {
+					path = reader.readText();
 
-			String path = findBlock(lines, "i");
-			ImageModel model = new ImageModel(new File(file.getParent(), path));
+				} else if (tag == 's') {
+					int count = reader.readFloats();
+					if (count >= 6) shapes.add(createShape(reader.getFloats(), count));
 
-			String vs;
-			while (!(vs = findBlock(lines, "s")).equals("")) {
-				Shape shape = new Shape();
-				shape.vertices.addAll(parseVertices(vs));
-				shape.closed = true;
-				if (shape.vertices.size() >= 3) model.shapes.add(shape);
+				} else {
+					// triangles and uvs are recomputed from the shapes
+					reader.skipLine();
+				}
 			}
+		} finally {
+			reader.close();
+			ImageSizeHelper.saveCache();
+		}
 
-			model.triangulate();
-			models.add(model);
+		triangulator.triangulate(models);
+		return models;
+	}
+
+	/**
+	 * Location of a model in a text project, as found by index().
+	 */
+	public static class IndexEntry {
+		/** Image path, relative to the project. */
+		public final String path;
+		/** Byte offset and length of the block of the model. */
+		public final long offset, length;
+
+		public IndexEntry(String path, long offset, long length) {
+			this.path = path;
+			this.offset = offset;
+			this.length = length;
 		}
+	}
 
+	/**
+	 * Scans a text project for the image path and the location of each
+	 * model, without parsing any number.
+	 */
+	public static List<IndexEntry> index(File file) throws IOException {
+		return index(file, null);
+	}
+
+	/**
+	 * @param progress notified after each model with the number of bytes
+	 * read, may be null.
+	 */
+	public static List<IndexEntry> index(File file, Progress progress) throws IOException {
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		String path = null;
+		long start = -1;
+
+		PshReader reader = new PshReader(FileUtils.openInputStream(file));
+
+		try {
+			while (true) {
+				int tag = reader.nextLine();
+
+				if (tag == PshReader.EOF || tag == PshReader.SEPARATOR) {
+					long end = tag == PshReader.EOF ? file.length() : reader.getLineOffset();
+					if (path != null) entries.add(new IndexEntry(path, start, end - start));
+					report(progress, end, file.length());
+					if (tag == PshReader.EOF) break;
+					path = null;
+					start = -1;
+					continue;
+				}
+
+				if (start < 0) start = reader.getLineOffset();
+				if (tag == 'i' && path == null) path = reader.readText();
+				else reader.skipLine();
+			}
+		} finally {
+			reader.close();
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Creates the models of a text or binary project without reading their
+	 * shapes, which are read by ImageModel.load() when needed. Image sizes
+	 * are read when first needed too, except for binary projects which
+	 * store them. The project file must not change while models are not
+	 * loaded.
+	 */
+	public static List<ImageModel> loadLazily(File file) throws IOException {
+		return loadLazily(file, null);
+	}
+
+	/**
+	 * @param progress notified while a text project is indexed, may be null.
+	 */
+	public static List<ImageModel> loadLazily(File file, Progress progress) throws IOException {
+		if (BinaryProject.isBinary(file)) return BinaryProject.open(file).getModels();
+
+		List<ImageModel> models = new ArrayList<ImageModel>();
+		for (IndexEntry entry : index(file, progress)) {
+			File imgFile = new File(file.getAbsoluteFile().getParent(), entry.path);
+			models.add(new ImageModel(imgFile, -1, -1, new TextBlockLoader(file, entry)));
+		}
 		return models;
 	}
 
-	private static String findBlock(List<String> lines, String start) {
-		for (int i=0; i<lines.size(); i++) {
-			String line = lines.get(i);
-			if (line.startsWith(start)) {
-				lines.remove(i);
-				return line.substring(start.length()).trim();
+	private static class TextBlockLoader implements ImageModel.Loader {
+		private final File file;
+		private final IndexEntry entry;
+
+		public TextBlockLoader(File file, IndexEntry entry) {
+			this.file = file;
+			this.entry = entry;
+		}
+
+		@Override
+		public void load(ImageModel model) throws IOException {
+			if (entry.length > Integer.MAX_VALUE) throw new IOException("Model too large: " + entry.path);
+			byte[] bytes = new byte[(int) entry.length];
+
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				raf.seek(entry.offset);
+				raf.readFully(bytes);
+			} finally {
+				raf.close();
+			}
+
+			PshReader reader = new PshReader(new ByteArrayInputStream(bytes), Math.max(bytes.length, 1));
+			int tag;
+
+			while ((tag = reader.nextLine()) != PshReader.EOF) {
+				if (tag == 's') {
+					int count = reader.readFloats();
+					if (count >= 6) model.shapes.add(createShape(reader.getFloats(), count));
+				} else {
+					reader.skipLine();
+				}
 			}
 		}
-		return "";
 	}
 
-	private static List<Vector2> parseVertices(String input) {
-		List<Vector2> vs = new ArrayList<Vector2>();
-		String[] words = input.split(",");
-		for (int i=1; i<words.length; i+=2) {
-			float x = Float.parseFloat(words[i-1]);
-			float y = Float.parseFloat(words[i]);
-			vs.add(new Vector2(x, y));
+	static void report(Progress progress, long done, long total) throws InterruptedIOException {
+		if (progress != null && !progress.update(done, total)) throw new InterruptedIOException("Cancelled");
+	}
+
+	private static ImageModel createModel(File file, String path, List<Shape> shapes) throws IOException {
+		ImageModel model = new ImageModel(new File(file.getParent(), path));
+		model.shapes.addAll(shapes);
+		return model;
+	}
+
+	private static Shape createShape(float[] coords, int count) {
+		Shape shape = new Shape();
+		for (int i=1; i<count; i+=2) shape.vertices.add(new Vector2(coords[i-1], coords[i]));
+		shape.closed = true;
+		return shape;
+	}
+
+	/**
+	 * Writes the values as a comma-separated list. Floats are formatted into
+	 * a reused buffer (same format as Float.toString()), which is flushed to
+	 * the writer every few kilobytes.
+	 */
+	private static void writeFloats(Writer writer, StringBuilder sb, char[] chars, float[] fs) throws IOException {
+		sb.setLength(0);
+
+		for (int i=0; i<fs.length; i++) {
+			if (i > 0) sb.append(',');
+			sb.append(fs[i]);
+			if (sb.length() >= FLUSH_THRESHOLD) flush(writer, sb, chars);
 		}
-		return vs;
+
+		flush(writer, sb, chars);
+	}
+
+	private static void writeIndices(Writer writer, StringBuilder sb, char[] chars, short[] is) throws IOException {
+		sb.setLength(0);
+
+		for (int i=0; i<is.length; i++) {
+			if (i > 0) sb.append(',');
+			sb.append(is[i] & 0xFFFF);
+			if (sb.length() >= FLUSH_THRESHOLD) flush(writer, sb, chars);
+		}
+
+		flush(writer, sb, chars);
+	}
+
+	private static void flush(Writer writer, StringBuilder sb, char[] chars) throws IOException {
+		int len = sb.length();
+		sb.getChars(0, len, chars, 0);
+		writer.write(chars, 0, len);
+		sb.setLength(0);
 	}
 }
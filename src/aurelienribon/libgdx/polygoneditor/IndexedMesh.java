@@ -0,0 +1,71 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Triangles stored as their distinct vertices, with texture coordinates,
+ * and three unsigned 16-bit indices per triangle. Immutable: the arrays
+ * must not be modified.
+ */
+public final class IndexedMesh {
+	private final float[] vertices, uvs;
+	private final short[] indices;
+
+	private IndexedMesh(float[] vertices, float[] uvs, short[] indices) {
+		this.vertices = vertices;
+		this.uvs = uvs;
+		this.indices = indices;
+	}
+
+	/**
+	 * Merges the vertices with the exact same position, from count
+	 * triangle vertices given as x,y pairs. The uvs array may be null if
+	 * there are no texture coordinates.
+	 */
+	static IndexedMesh build(float[] triangles, float[] uvs, int count, String name) {
+		boolean hasUVs = uvs != null;
+		Map<Long, Integer> idxs = new HashMap<Long, Integer>(count);
+		float[] vs = new float[count*2], us = new float[hasUVs ? count*2 : 0];
+		short[] is = new short[count];
+		int n = 0;
+
+		for (int i=0; i<count; i++) {
+			float x = triangles[i*2], y = triangles[i*2+1];
+			Long key = ((long) Float.floatToIntBits(x) << 32) | (Float.floatToIntBits(y) & 0xFFFFFFFFL);
+			Integer idx = idxs.get(key);
+
+			if (idx == null) {
+				if (n > 0xFFFF) throw new IllegalStateException("Too many vertices for 16-bit indices: " + name);
+				idx = n++;
+				idxs.put(key, idx);
+				vs[idx*2] = x;
+				vs[idx*2+1] = y;
+				if (hasUVs) {
+					us[idx*2] = uvs[i*2];
+					us[idx*2+1] = uvs[i*2+1];
+				}
+			}
+
+			is[i] = (short) (int) idx;
+		}
+
+		return new IndexedMesh(Arrays.copyOf(vs, n*2), Arrays.copyOf(us, hasUVs ? n*2 : 0), is);
+	}
+
+	/** Distinct vertices, as x,y pairs. */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	/** Texture coordinates of the vertices, as u,v pairs, or an empty array. */
+	public float[] getUVs() {
+		return uvs;
+	}
+
+	/** Indices of the vertices, read them with "& 0xFFFF". */
+	public short[] getIndices() {
+		return indices;
+	}
+}
@@ -0,0 +1,230 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.gdx.EarClipper;
+import aurelienribon.utils.gdx.Vector2Array;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Vector2;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Triangulates the shapes being edited on a worker thread, so that the
+ * triangles follow the vertices while they are dragged, without blocking
+ * the GL thread. Requests are throttled, and only the latest one is kept:
+ * a new request replaces the pending one, and cancel() drops both the
+ * pending request and the results not applied yet.
+ * <p/>
+ * request() and cancel() must be called on the GL thread. The vertices of
+ * the invalidated shapes are copied there, and the results are applied
+ * there too, in a single runnable, so the model never shows half of a
+ * result. If the shapes were moved again in the meantime, which is the
+ * usual case during a drag, the results are only displayed: the model
+ * stays invalid until it is triangulated again.
+ */
+public class LiveTriangulator {
+	private final Runnable listener;
+	private final Object lock = new Object();
+	private Thread thread;
+	private Job pending;
+	private volatile int generation;
+	private volatile int cancelledGeneration;
+	private long interval = 30;
+	private long lastStart;
+	private boolean disposed;
+
+	/**
+	 * @param listener called on the GL thread after a result was applied.
+	 */
+	public LiveTriangulator(Runnable listener) {
+		this.listener = listener;
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Minimum delay between two triangulations, in milliseconds.
+	 */
+	public void setInterval(long interval) {
+		synchronized (lock) {
+			this.interval = Math.max(0, interval);
+		}
+	}
+
+	/**
+	 * Asks for the shapes of the model that changed since their last
+	 * triangulation to be triangulated again, replacing any pending request.
+	 */
+	public void request(ImageModel model) {
+		Job job = new Job(model, ++generation);
+		if (job.shapes.isEmpty()) return;
+
+		synchronized (lock) {
+			if (disposed) return;
+			pending = job;
+			if (thread == null) {
+				thread = new Thread(new Runnable() {@Override public void run() {loop();}}, "Live triangulation");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Drops the pending request and the results not applied yet.
+	 */
+	public void cancel() {
+		cancelledGeneration = generation;
+		synchronized (lock) {
+			pending = null;
+		}
+	}
+
+	public void dispose() {
+		cancel();
+		synchronized (lock) {
+			disposed = true;
+			lock.notifyAll();
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private void loop() {
+		EarClipper clipper = new EarClipper();
+
+		while (true) {
+			Job job;
+
+			synchronized (lock) {
+				try {
+					if (disposed) return;
+					if (pending == null) {
+						lock.wait();
+						continue;
+					}
+
+					long wait = lastStart + interval - System.currentTimeMillis();
+					if (wait > 0) {
+						lock.wait(wait);
+						continue;
+					}
+				} catch (InterruptedException ex) {
+					return;
+				}
+
+				job = pending;
+				pending = null;
+				lastStart = System.currentTimeMillis();
+			}
+
+			if (job.compute(clipper)) {
+				final Job result = job;
+				Gdx.app.postRunnable(new Runnable() {@Override public void run() {
+					if (result.apply()) listener.run();
+				}});
+			}
+		}
+	}
+
+	private class Job {
+		private final ImageModel model;
+		private final int generation;
+		private final float w, h;
+		private final List<Shape> shapes = new ArrayList<Shape>();
+		private final List<float[]> coords = new ArrayList<float[]>();
+		private final int[] versions;
+		private final boolean[] closed;
+		private final Vector2Array[] triangles, uvs;
+
+		public Job(ImageModel model, int generation) {
+			this.model = model;
+			this.generation = generation;
+			this.w = model.getWidth();
+			this.h = model.getHeight();
+
+			for (Shape shape : model.shapes) {
+				if (shape.isTriangulationValid()) continue;
+				float[] cs = new float[shape.vertices.size() * 2];
+				for (int i=0; i<shape.vertices.size(); i++) {
+					Vector2 v = shape.vertices.get(i);
+					cs[i*2] = v.x;
+					cs[i*2+1] = v.y;
+				}
+				shapes.add(shape);
+				coords.add(cs);
+			}
+
+			versions = new int[shapes.size()];
+			closed = new boolean[shapes.size()];
+			triangles = new Vector2Array[shapes.size()];
+			uvs = new Vector2Array[shapes.size()];
+			for (int i=0; i<shapes.size(); i++) {
+				versions[i] = shapes.get(i).getVersion();
+				closed[i] = shapes.get(i).closed;
+			}
+		}
+
+		/**
+		 * Runs on the worker thread. Returns false if it was cancelled.
+		 */
+		public boolean compute(EarClipper clipper) {
+			for (int i=0; i<shapes.size(); i++) {
+				if (isCancelled()) return false;
+
+				float[] cs = coords.get(i);
+				int n = cs.length / 2;
+				triangles[i] = new Vector2Array(Math.max(n * 3, 3));
+				uvs[i] = new Vector2Array(Math.max(n * 3, 3));
+
+				if (n >= 3 && closed[i]) {
+					clipper.computeTriangles(cs, 0, n, triangles[i]);
+					if (w > 0.1f && h > 0.1f) {
+						Vector2Array ts = triangles[i];
+						for (int j=0; j<ts.size(); j++) uvs[i].add(ts.getX(j)/w, 1-ts.getY(j)/h);
+					}
+				}
+			}
+
+			return !isCancelled();
+		}
+
+		/**
+		 * Runs on the GL thread. Results of shapes that didn't change since
+		 * the request become their triangulation. If every shape is then
+		 * triangulated, the model triangles are rebuilt from them, else the
+		 * results are only previewed. Nothing is triangulated on this thread.
+		 */
+		public boolean apply() {
+			if (isCancelled()) return false;
+
+			for (int i=0; i<shapes.size(); i++) {
+				Shape shape = shapes.get(i);
+				if (shape.getVersion() != versions[i] || shape.closed != closed[i]
+					|| shape.vertices.size() * 2 != coords.get(i).length) continue;
+				shape.setTriangles(triangles[i], uvs[i]);
+			}
+
+			for (Shape shape : model.shapes) {
+				if (!shape.isTriangulationValid()) {
+					model.previewTriangles(shapes, triangles, uvs);
+					return true;
+				}
+			}
+
+			// Every shape is valid, so this only concatenates their triangles
+			model.clearTriangles();
+			model.triangulate();
+			return true;
+		}
+
+		private boolean isCancelled() {
+			return generation <= cancelledGeneration;
+		}
+	}
+}
@@ -3,6 +3,7 @@ package aurelienribon.libgdx.polygoneditor;
 import com.badlogic.gdx.backends.lwjgl.LwjglCanvas;
 import java.awt.Dimension;
 import java.awt.Toolkit;
+import java.util.Arrays;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
@@ -12,6 +13,8 @@ import javax.swing.UnsupportedLookAndFeelException;
  */
 public class Main {
 	public static void main (String[] args) {
+		final boolean continuous = Arrays.asList(args).contains("--continuous");
+
 		SwingUtilities.invokeLater(new Runnable() {@Override public void run() {
 			try {
 				UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -22,6 +25,7 @@ public class Main {
 			}
 
 			Canvas canvas = new Canvas();
+			canvas.setContinuousRendering(continuous);
 			LwjglCanvas glCanvas = new LwjglCanvas(canvas, true);
 
 			MainWindow mw = new MainWindow(canvas, glCanvas.getCanvas());
@@ -4,6 +4,7 @@ import aurelienribon.ui.components.ArStyle;
 import aurelienribon.ui.components.PaintedPanel;
 import aurelienribon.ui.css.Style;
 import aurelienribon.ui.css.swing.SwingStyle;
+import aurelienribon.utils.io.ImageSizeHelper;
 import aurelienribon.utils.notifications.AutoListModel;
 import aurelienribon.utils.notifications.ObservableList;
 import java.awt.BorderLayout;
@@ -11,10 +12,17 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.prefs.Preferences;
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.JColorChooser;
@@ -23,6 +31,9 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.ListCellRenderer;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
@@ -38,6 +49,7 @@ public class MainWindow extends javax.swing.JFrame {
 
     private final Canvas canvas;
     private final ObservableList<ImageModel> images = new ObservableList<ImageModel>();
+    private boolean ioRunning = false;
 
     static String lastDirectory = "polygonEditorLastDirectory";
 
@@ -78,18 +90,21 @@ public class MainWindow extends javax.swing.JFrame {
             @Override
             public void stateChanged(ChangeEvent e) {
                 canvas.spriteOpacity = spriteOpacitySlider.getValue();
+                canvas.requestRendering();
             }
         });
         drawTrianglesChk.setActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 canvas.drawTriangles = drawTrianglesChk.isSelected();
+                canvas.requestRendering();
             }
         });
         drawBoundingBoxChk.setActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 canvas.drawBoundingBox = drawBoundingBoxChk.isSelected();
+                canvas.requestRendering();
             }
         });
 
@@ -105,6 +120,7 @@ public class MainWindow extends javax.swing.JFrame {
                 );
                 float rgb[] = newColor.getRGBComponents(null);
                 canvas.bgColor.set(rgb[0], rgb[1], rgb[2], 1f);
+                canvas.requestRendering();
             }
         });
 
@@ -137,9 +153,23 @@ public class MainWindow extends javax.swing.JFrame {
         @Override
         public void valueChanged(ListSelectionEvent e) {
             ImageModel img = (ImageModel) imagesList.getSelectedValue();
+            if (img != null && !img.isLoaded()) {
+                try {
+                    img.load();
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(MainWindow.this, "Cannot load the shapes of the image, reason is:\n" + ex.getMessage());
+                }
+            }
             canvas.setImage(img);
+
+            int idx = imagesList.getSelectedIndex();
+            if (idx >= 0) {
+                canvas.prefetch(
+                        idx > 0 ? images.get(idx - 1) : null,
+                        idx < images.size() - 1 ? images.get(idx + 1) : null);
+            }
             deleteBtn.setEnabled(img != null);
-            saveBtn.setEnabled(img != null);
+            saveBtn.setEnabled(img != null && !ioRunning);
         }
     };
 
@@ -191,6 +221,7 @@ public class MainWindow extends javax.swing.JFrame {
                     JOptionPane.showMessageDialog(this, "Cannot get the canonical path of file:\n" + file.getPath());
                 }
             }
+            ImageSizeHelper.saveCache();
         }
     }
 
@@ -201,37 +232,190 @@ public class MainWindow extends javax.swing.JFrame {
     }
 
     private void load() {
-        Preferences prefs = Preferences.userRoot().node(getClass().getName());
+        final Preferences prefs = Preferences.userRoot().node(getClass().getName());
         String path = prefs.get(lastDirectory, System.getProperty("user.dir"));
         JFileChooser chooser = new JFileChooser(path);
         chooser.setDialogTitle("Choose the file to read");
 
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try {
-                File file = chooser.getSelectedFile();
-                images.clear();
-                images.addAll(ImageModelIo.load(file));
-                imagesList.clearSelection();
-                prefs.put(lastDirectory, chooser.getSelectedFile().getParent());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Cannot load the project, reason is:\n" + ex.getMessage());
-            }
+            final File file = chooser.getSelectedFile();
+
+            new IoTask<List<ImageModel>>("Loading " + file.getName(), "Cannot load the project") {
+                @Override
+                protected List<ImageModel> work() throws IOException {
+                    return ImageModelIo.loadLazily(file, this);
+                }
+
+                @Override
+                protected void succeeded(List<ImageModel> models) {
+                    images.clear();
+                    images.addAll(models);
+                    imagesList.clearSelection();
+                    prefs.put(lastDirectory, file.getParent());
+                }
+            }.start();
         }
     }
 
     private void save() {
-        Preferences prefs = Preferences.userRoot().node(getClass().getName());
+        final Preferences prefs = Preferences.userRoot().node(getClass().getName());
         String path = prefs.get(lastDirectory, System.getProperty("user.dir"));
         JFileChooser chooser = new JFileChooser(path);
         chooser.setDialogTitle("Choose the file to write or overwrite");
 
         if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            final File file = chooser.getSelectedFile();
+            boolean binary = FilenameUtils.getExtension(file.getName()).equalsIgnoreCase(ImageModelIo.BINARY_EXTENSION);
+            final ImageModelIo.Format format = binary ? ImageModelIo.Format.BINARY : ImageModelIo.Format.TEXT;
+            final List<ImageModel> models = new ArrayList<ImageModel>(images);
+
+            new IoTask<Void>("Saving " + file.getName(), "Cannot save the project") {
+                @Override
+                protected Void work() throws Exception {
+                    // Lazy models must be read before the file is replaced. They
+                    // can't be edited until they are loaded, and load() is
+                    // synchronized, so this can be done here.
+                    setRange(0, 20);
+                    for (int i = 0; i < models.size(); i++) {
+                        models.get(i).load();
+                        update(i + 1, models.size());
+                    }
+
+                    // Snapshots are taken on the thread editing the models, and
+                    // only copy the shapes modified since the last save
+                    FutureTask<List<ModelSnapshot>> snapshots = new FutureTask<List<ModelSnapshot>>(new Callable<List<ModelSnapshot>>() {
+                        @Override
+                        public List<ModelSnapshot> call() throws IOException {
+                            List<ModelSnapshot> snapshots = new ArrayList<ModelSnapshot>(models.size());
+                            for (ImageModel model : models) {
+                                snapshots.add(model.snapshot());
+                            }
+                            return snapshots;
+                        }
+                    });
+                    SwingUtilities.invokeLater(snapshots);
+
+                    List<ModelSnapshot> result;
+                    try {
+                        result = snapshots.get();
+                    } catch (ExecutionException ex) {
+                        if (ex.getCause() instanceof IOException) {
+                            throw (IOException) ex.getCause();
+                        }
+                        throw new RuntimeException(ex.getCause());
+                    }
+
+                    setRange(20, 100);
+                    ImageModelIo.saveSnapshots(file, result, format, this);
+                    return null;
+                }
+
+                @Override
+                protected void succeeded(Void result) {
+                    prefs.put(lastDirectory, file.getParent());
+                }
+            }.start();
+        }
+    }
+
+    private void setIoRunning(boolean running) {
+        ioRunning = running;
+        loadBtn.setEnabled(!running);
+        saveBtn.setEnabled(!running && imagesList.getSelectedValue() != null);
+    }
+
+    /**
+     * Reads or writes a project on a worker thread, so that the editor stays
+     * responsive. The progress is shown in a dialog, which can cancel the
+     * task: the task stops at its next progress update, and an interrupted
+     * save leaves the previous file untouched. Other project I/O is disabled
+     * until the worker thread is done, which can be a bit after the task was
+     * cancelled.
+     */
+    private abstract class IoTask<T> extends SwingWorker<T, Void> implements ImageModelIo.Progress {
+        private final String message;
+        private final String error;
+        private ProgressMonitor monitor;
+        private int from = 0, to = 100;
+
+        public IoTask(String message, String error) {
+            this.message = message;
+            this.error = error;
+        }
+
+        public void start() {
+            monitor = new ProgressMonitor(MainWindow.this, message, null, 0, 100);
+            addPropertyChangeListener(new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent e) {
+                    if ("progress".equals(e.getPropertyName())) {
+                        monitor.setProgress((Integer) e.getNewValue());
+                        if (monitor.isCanceled()) {
+                            cancel(false);
+                        }
+                    }
+                }
+            });
+
+            setIoRunning(true);
+            execute();
+        }
+
+        /**
+         * Does the work, on the worker thread.
+         */
+        protected abstract T work() throws Exception;
+
+        @Override
+        protected final T doInBackground() throws Exception {
+            try {
+                return work();
+            } finally {
+                // done() is called as soon as the task is cancelled, this is
+                // called once the work really stopped
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        setIoRunning(false);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Maps the next progress updates to the given range, in percents.
+         */
+        protected void setRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean update(long done, long total) {
+            if (total > 0) {
+                setProgress(from + (int) ((to - from) * Math.min(done, total) / total));
+            }
+            return !isCancelled();
+        }
+
+        /**
+         * Called on the EDT if the task completed.
+         */
+        protected abstract void succeeded(T result);
+
+        @Override
+        protected void done() {
+            monitor.close();
+            if (isCancelled()) {
+                return;
+            }
+
             try {
-                File file = chooser.getSelectedFile();
-                ImageModelIo.save(file, images);
-                prefs.put(lastDirectory, chooser.getSelectedFile().getParent());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Cannot save the project, reason is:\n" + ex.getMessage());
+                succeeded(get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                JOptionPane.showMessageDialog(MainWindow.this, error + ", reason is:\n" + ex.getCause().getMessage());
             }
         }
     }
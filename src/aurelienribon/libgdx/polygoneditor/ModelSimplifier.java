@@ -0,0 +1,160 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import aurelienribon.utils.gdx.PolygonSimplifier;
+import com.badlogic.gdx.math.Vector2;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies a PolygonSimplifier to the closed shapes of models, and reports
+ * the vertex and triangle counts before and after. Shapes are modified in
+ * place and invalidated, so this must not run while they are displayed.
+ */
+public class ModelSimplifier {
+	private final PolygonSimplifier simplifier;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public ModelSimplifier(PolygonSimplifier simplifier) {
+		this.simplifier = simplifier;
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	public PolygonSimplifier getSimplifier() {
+		return simplifier;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Simplifies a closed shape. Returns true if vertices were removed.
+	 */
+	public boolean simplify(Shape shape) {
+		if (!shape.closed || shape.vertices.size() <= 3) return false;
+
+		List<Vector2> vs = simplifier.simplify(shape.vertices);
+		if (vs.size() == shape.vertices.size()) return false;
+
+		shape.vertices.clear();
+		shape.vertices.addAll(vs);
+		shape.invalidate();
+		return true;
+	}
+
+	/**
+	 * Simplifies every closed shape of the model, and triangulates it again.
+	 */
+	public Report simplify(ImageModel model) {
+		return simplifyAll(Collections.singletonList(model));
+	}
+
+	/**
+	 * Simplifies and triangulates every model, on a pool of worker threads.
+	 */
+	public Report simplifyAll(List<ImageModel> models) {
+		final int[] counts = new int[models.size() * 4];
+		int threads = Math.min(parallelism, models.size());
+
+		if (threads <= 1) {
+			for (int i=0; i<models.size(); i++) simplify(models.get(i), counts, i * 4);
+
+		} else {
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(models.size());
+			for (int i=0; i<models.size(); i++) {
+				final int idx = i;
+				final ImageModel model = models.get(i);
+				tasks.add(new Callable<Void>() {@Override public Void call() {
+					simplify(model, counts, idx * 4);
+					return null;
+				}});
+			}
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Simplification interrupted", ex);
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Simplification failed", ex.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		return new Report(new ArrayList<ImageModel>(models), counts);
+	}
+
+	private void simplify(ImageModel model, int[] counts, int offset) {
+		model.triangulate();
+		counts[offset] = getVertexCount(model);
+		counts[offset+1] = model.trianglesVertices.size() / 3;
+
+		for (Shape shape : model.shapes) simplify(shape);
+
+		model.triangulate();
+		counts[offset+2] = getVertexCount(model);
+		counts[offset+3] = model.trianglesVertices.size() / 3;
+	}
+
+	private static int getVertexCount(ImageModel model) {
+		int count = 0;
+		for (Shape shape : model.shapes) count += shape.vertices.size();
+		return count;
+	}
+
+	// -------------------------------------------------------------------------
+	// Report
+	// -------------------------------------------------------------------------
+
+	public static class Report {
+		private final List<ImageModel> models;
+		private final int[] counts;
+
+		private Report(List<ImageModel> models, int[] counts) {
+			this.models = models;
+			this.counts = counts;
+		}
+
+		public int getModelCount() {return models.size();}
+		public ImageModel getModel(int idx) {return models.get(idx);}
+		public int getVerticesBefore(int idx) {return counts[idx*4];}
+		public int getTrianglesBefore(int idx) {return counts[idx*4+1];}
+		public int getVerticesAfter(int idx) {return counts[idx*4+2];}
+		public int getTrianglesAfter(int idx) {return counts[idx*4+3];}
+
+		public int getVerticesBefore() {return sum(0);}
+		public int getTrianglesBefore() {return sum(1);}
+		public int getVerticesAfter() {return sum(2);}
+		public int getTrianglesAfter() {return sum(3);}
+
+		private int sum(int offset) {
+			int sum = 0;
+			for (int i=offset; i<counts.length; i+=4) sum += counts[i];
+			return sum;
+		}
+
+		@Override
+		public String toString() {
+			int tb = getTrianglesBefore(), ta = getTrianglesAfter();
+			return String.format(Locale.US, "Simplified %d models: %d -> %d vertices, %d -> %d triangles (%.1f %% less)",
+				models.size(), getVerticesBefore(), getVerticesAfter(), tb, ta, tb > 0 ? 100f * (tb - ta) / tb : 0f);
+		}
+	}
+}
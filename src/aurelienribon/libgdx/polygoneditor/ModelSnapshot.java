@@ -0,0 +1,117 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Immutable copy of an ImageModel, taken by ImageModel.snapshot(). It can
+ * be saved, exported or analyzed on any thread while the editor keeps
+ * modifying the model. Shapes that didn't change between two snapshots
+ * share the same ShapeSnapshot, so taking a snapshot only copies what was
+ * modified. The arrays returned must not be modified.
+ */
+public final class ModelSnapshot {
+	private final ImageModel model;
+	private final int version;
+	private final float w, h;
+	private final List<ShapeSnapshot> shapes;
+	private float[] triangles, uvs;
+	private IndexedMesh indexedMesh;
+
+	ModelSnapshot(ImageModel model, int version, float w, float h, List<ShapeSnapshot> shapes) {
+		this.model = model;
+		this.version = version;
+		this.w = w;
+		this.h = h;
+		this.shapes = shapes;
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Gets the model the snapshot was taken from. Only its file can be used
+	 * outside of the thread that modifies it.
+	 */
+	public ImageModel getModel() {return model;}
+	public File getFile() {return model.file;}
+	public float getWidth() {return w;}
+	public float getHeight() {return h;}
+
+	/**
+	 * Gets a number that grows every time a snapshot of the model is taken
+	 * after it changed. Two snapshots of a model with the same version are
+	 * the same object.
+	 */
+	public int getVersion() {return version;}
+
+	/** Gets the shapes, as an unmodifiable list. */
+	public List<ShapeSnapshot> getShapes() {return shapes;}
+
+	public int getVertexCount() {
+		int count = 0;
+		for (ShapeSnapshot shape : shapes) count += shape.getVertexCount();
+		return count;
+	}
+
+	/**
+	 * Gets the triangle vertices of every shape, as x,y pairs, like
+	 * ImageModel.trianglesVertices.
+	 */
+	public synchronized float[] getTriangles() {
+		concatenate();
+		return triangles;
+	}
+
+	/** Texture coordinates of the triangle vertices, or an empty array. */
+	public synchronized float[] getTrianglesUVs() {
+		concatenate();
+		return uvs;
+	}
+
+	/** Number of triangle vertices. */
+	public int getTrianglesCount() {
+		return getTriangles().length / 2;
+	}
+
+	public synchronized IndexedMesh getIndexedMesh() {
+		if (indexedMesh == null) {
+			float[] ts = getTriangles(), us = getTrianglesUVs();
+			int count = ts.length / 2;
+			indexedMesh = IndexedMesh.build(ts, us.length == ts.length ? us : null, count, model.file.getPath());
+		}
+		return indexedMesh;
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private void concatenate() {
+		if (triangles != null) return;
+
+		int tsLength = 0, usLength = 0;
+		for (ShapeSnapshot shape : shapes) {
+			tsLength += shape.getTriangles().length;
+			usLength += shape.getUVs().length;
+		}
+
+		// Like the model, UVs are only kept if every shape has them
+		float[] ts = new float[tsLength], us = new float[usLength == tsLength ? usLength : 0];
+		int ti = 0, ui = 0;
+
+		for (ShapeSnapshot shape : shapes) {
+			float[] sts = shape.getTriangles(), sus = shape.getUVs();
+			System.arraycopy(sts, 0, ts, ti, sts.length);
+			ti += sts.length;
+			if (us.length > 0) {
+				System.arraycopy(sus, 0, us, ui, sus.length);
+				ui += sus.length;
+			}
+		}
+
+		triangles = ts;
+		uvs = us;
+	}
+}
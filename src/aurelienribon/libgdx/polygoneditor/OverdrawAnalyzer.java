@@ -0,0 +1,296 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how well the triangles of models fit the alpha of their images,
+ * by rasterizing them in software like the GPU would: a pixel is drawn by
+ * a triangle if its center is inside. It counts the transparent pixels
+ * that are drawn anyway, the opaque pixels that are missed, and the pixels
+ * drawn compared to a plain quad. It works on snapshots of the models, so
+ * the editor can keep modifying them during the analysis.
+ */
+public class OverdrawAnalyzer {
+	private int threshold = 0;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Pixels with an alpha strictly above the threshold (0-254) are opaque.
+	 */
+	public void setThreshold(int threshold) {
+		this.threshold = Math.max(0, Math.min(254, threshold));
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getThreshold() {return threshold;}
+	public int getParallelism() {return parallelism;}
+
+	public Stats analyze(ImageModel model) throws IOException {
+		return analyze(model.snapshot());
+	}
+
+	public Stats analyze(ModelSnapshot model) throws IOException {
+		return analyze(model, AlphaMask.read(model.getFile()));
+	}
+
+	public Stats analyze(ModelSnapshot model, AlphaMask mask) {
+		int w = mask.getWidth(), h = mask.getHeight();
+		boolean[] covered = new boolean[w * h];
+		long fragments = 0;
+
+		float[] coords = model.getTriangles();
+		for (int i=0; i+5<coords.length; i+=6) {
+			fragments += rasterize(coords, i, w, h, covered);
+		}
+
+		Stats stats = new Stats(model, w, h, fragments);
+		for (int y=0; y<h; y++) {
+			for (int x=0; x<w; x++) {
+				boolean opaque = mask.get(x, y) > threshold;
+				boolean drawn = covered[y*w + x];
+				if (opaque) stats.opaquePixels++;
+				if (drawn) stats.coveredPixels++;
+				if (drawn && !opaque) stats.coveredTransparentPixels++;
+				if (!drawn && opaque) stats.uncoveredOpaquePixels++;
+			}
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Analyzes every model on a pool of worker threads. Snapshots of the
+	 * models are taken first, on the calling thread. If images can't be
+	 * read, the first error is thrown after the other models are done.
+	 */
+	public Report analyzeAll(List<ImageModel> models) throws IOException {
+		List<ModelSnapshot> snapshots = new ArrayList<ModelSnapshot>(models.size());
+		for (ImageModel model : models) snapshots.add(model.snapshot());
+		return analyzeSnapshots(snapshots);
+	}
+
+	/**
+	 * Analyzes snapshots of models on a pool of worker threads, and can be
+	 * called from any thread.
+	 */
+	public Report analyzeSnapshots(List<ModelSnapshot> models) throws IOException {
+		final Stats[] stats = new Stats[models.size()];
+		final IOException[] errors = new IOException[models.size()];
+		int threads = Math.min(parallelism, models.size());
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(models.size());
+		for (int i=0; i<models.size(); i++) {
+			final int idx = i;
+			final ModelSnapshot model = models.get(i);
+			tasks.add(new Callable<Void>() {@Override public Void call() {
+				try {
+					stats[idx] = analyze(model);
+				} catch (IOException ex) {
+					errors[idx] = ex;
+				}
+				return null;
+			}});
+		}
+
+		if (threads <= 1) {
+			for (Callable<Void> task : tasks) {
+				try {task.call();} catch (Exception ex) {throw new RuntimeException(ex);}
+			}
+
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Analysis interrupted", ex);
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Analysis failed", ex.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		for (IOException error : errors) {
+			if (error != null) throw error;
+		}
+		return new Report(stats);
+	}
+
+	// -------------------------------------------------------------------------
+	// Rasterization
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Marks the pixels whose center is inside the triangle, and returns
+	 * their count. Model coordinates have y going up, pixel rows go down.
+	 * Each pixel center row crossing the triangle is filled between the
+	 * crossed edges, with half-open ranges so that pixels on an edge shared
+	 * by two triangles are only drawn once. The triangle is read as 3 x,y
+	 * pairs from the coordinates, starting at the given offset.
+	 */
+	private static long rasterize(float[] coords, int offset, int w, int h, boolean[] covered) {
+		float ax = coords[offset], ay = coords[offset+1];
+		float bx = coords[offset+2], by = coords[offset+3];
+		float cx = coords[offset+4], cy = coords[offset+5];
+		float minY = Math.min(ay, Math.min(by, cy));
+		float maxY = Math.max(ay, Math.max(by, cy));
+
+		// Rows whose center y = h - row - 0.5 is in [minY, maxY)
+		int row0 = Math.max(0, (int) Math.floor(h - maxY - 0.5f));
+		int row1 = Math.min(h - 1, (int) Math.floor(h - minY - 0.5f));
+
+		long count = 0;
+		float[] xs = new float[3];
+
+		for (int row=row0; row<=row1; row++) {
+			float y = h - row - 0.5f;
+			if (y < minY || y >= maxY) continue;
+
+			int n = 0;
+			n = crossEdge(ax, ay, bx, by, y, xs, n);
+			n = crossEdge(bx, by, cx, cy, y, xs, n);
+			n = crossEdge(cx, cy, ax, ay, y, xs, n);
+			if (n < 2) continue;
+
+			float xl = Math.min(xs[0], xs[1]), xr = Math.max(xs[0], xs[1]);
+			if (n == 3) {
+				xl = Math.min(xl, xs[2]);
+				xr = Math.max(xr, xs[2]);
+			}
+
+			// Pixels whose center x + 0.5 is in [xl, xr)
+			int x0 = Math.max(0, (int) Math.ceil(xl - 0.5f));
+			int x1 = Math.min(w - 1, (int) Math.ceil(xr - 0.5f) - 1);
+			for (int x=x0; x<=x1; x++) covered[row*w + x] = true;
+			if (x1 >= x0) count += x1 - x0 + 1;
+		}
+
+		return count;
+	}
+
+	private static int crossEdge(float px, float py, float qx, float qy, float y, float[] xs, int n) {
+		float y0 = Math.min(py, qy), y1 = Math.max(py, qy);
+		if (y < y0 || y >= y1) return n;
+		xs[n] = px + (y - py) * (qx - px) / (qy - py);
+		return n + 1;
+	}
+
+	// -------------------------------------------------------------------------
+	// Results
+	// -------------------------------------------------------------------------
+
+	public static class Stats {
+		private final ModelSnapshot model;
+		private final int width, height;
+		private final long drawnPixels;
+		private long opaquePixels, coveredPixels;
+		private long coveredTransparentPixels, uncoveredOpaquePixels;
+
+		private Stats(ModelSnapshot model, int width, int height, long drawnPixels) {
+			this.model = model;
+			this.width = width;
+			this.height = height;
+			this.drawnPixels = drawnPixels;
+		}
+
+		public ImageModel getModel() {return model.getModel();}
+		public ModelSnapshot getSnapshot() {return model;}
+		public int getWidth() {return width;}
+		public int getHeight() {return height;}
+
+		/** Pixels of the full quad. */
+		public long getQuadPixels() {return (long) width * height;}
+		/** Pixels drawn by the triangles, counted once per triangle. */
+		public long getDrawnPixels() {return drawnPixels;}
+		public long getOpaquePixels() {return opaquePixels;}
+		/** Pixels drawn at least once. */
+		public long getCoveredPixels() {return coveredPixels;}
+		/** Transparent pixels drawn for nothing. */
+		public long getCoveredTransparentPixels() {return coveredTransparentPixels;}
+		/** Opaque pixels cut off by the mesh. */
+		public long getUncoveredOpaquePixels() {return uncoveredOpaquePixels;}
+
+		/**
+		 * Part of the drawn pixels that are wasted, being transparent or
+		 * drawn more than once. 0 is best.
+		 */
+		public float getOverdrawRatio() {
+			return drawnPixels > 0 ? (float) (drawnPixels - coveredPixels + coveredTransparentPixels) / drawnPixels : 0;
+		}
+
+		/** Part of the opaque pixels that are not drawn, 0 is best. */
+		public float getUncoveredRatio() {
+			return opaquePixels > 0 ? (float) uncoveredOpaquePixels / opaquePixels : 0;
+		}
+
+		/** Part of the quad pixels that are not drawn thanks to the mesh. */
+		public float getSavedRatio() {
+			long quad = getQuadPixels();
+			return quad > 0 ? 1 - (float) drawnPixels / quad : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%5.1f %% overdraw, %5.1f %% uncovered, %5.1f %% saved  %s",
+				getOverdrawRatio() * 100, getUncoveredRatio() * 100, getSavedRatio() * 100, model.getFile().getPath());
+		}
+	}
+
+	public static class Report {
+		private final Stats[] stats;
+
+		private Report(Stats[] stats) {
+			this.stats = stats;
+		}
+
+		public int getModelCount() {return stats.length;}
+		public Stats getStats(int idx) {return stats[idx];}
+
+		public long getQuadPixels() {long s = 0; for (Stats st : stats) s += st.getQuadPixels(); return s;}
+		public long getDrawnPixels() {long s = 0; for (Stats st : stats) s += st.getDrawnPixels(); return s;}
+		public long getOpaquePixels() {long s = 0; for (Stats st : stats) s += st.getOpaquePixels(); return s;}
+		public long getCoveredTransparentPixels() {long s = 0; for (Stats st : stats) s += st.getCoveredTransparentPixels(); return s;}
+		public long getUncoveredOpaquePixels() {long s = 0; for (Stats st : stats) s += st.getUncoveredOpaquePixels(); return s;}
+
+		public float getOverdrawRatio() {
+			long drawn = getDrawnPixels(), wasted = 0;
+			for (Stats st : stats) wasted += st.getDrawnPixels() - st.getCoveredPixels() + st.getCoveredTransparentPixels();
+			return drawn > 0 ? (float) wasted / drawn : 0;
+		}
+
+		public float getUncoveredRatio() {
+			long opaque = getOpaquePixels();
+			return opaque > 0 ? (float) getUncoveredOpaquePixels() / opaque : 0;
+		}
+
+		public float getSavedRatio() {
+			long quad = getQuadPixels();
+			return quad > 0 ? 1 - (float) getDrawnPixels() / quad : 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Stats st : stats) sb.append(st).append("\n");
+			sb.append(String.format(Locale.US, "%5.1f %% overdraw, %5.1f %% uncovered, %5.1f %% saved  (%d models, %d of %d quad pixels drawn)",
+				getOverdrawRatio() * 100, getUncoveredRatio() * 100, getSavedRatio() * 100, stats.length, getDrawnPixels(), getQuadPixels()));
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Single-pass, line-oriented tokenizer for .psh project files. The input is
+ * read through a small fixed buffer, and numbers are parsed straight from
+ * the bytes, so memory use doesn't depend on the file size.
+ */
+class PshReader {
+	public static final int EOF = -1;
+	public static final int SEPARATOR = '-';
+
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final InputStream input;
+	private final byte[] buffer;
+	private int pos, limit;
+	private long bufferOffset;
+	private long lineOffset;
+	private int lineNumber;
+
+	private byte[] text = new byte[256];
+	private char[] token = new char[32];
+	private float[] floats = new float[256];
+
+	public PshReader(InputStream input) {
+		this(input, 64 * 1024);
+	}
+
+	public PshReader(InputStream input, int bufferSize) {
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Moves to the next non-blank line and returns its tag character,
+	 * SEPARATOR for a "---" line, or EOF. The rest of the line must then be
+	 * consumed with readText(), readFloats() or skipLine().
+	 */
+	public int nextLine() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == '\n' || isSpace(c));
+
+		if (c == EOF) return EOF;
+		lineNumber++;
+		lineOffset = bufferOffset + pos - 1;
+
+		if (c == '-' && peek() == '-') {
+			skipLine();
+			return SEPARATOR;
+		}
+		return c;
+	}
+
+	/**
+	 * Byte offset of the start of the line returned by the last nextLine().
+	 */
+	public long getLineOffset() {
+		return lineOffset;
+	}
+
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Reads the remainder of the current line as trimmed text, decoded with
+	 * the platform charset.
+	 */
+	public String readText() throws IOException {
+		int len = 0;
+		int c;
+		while ((c = read()) != EOF && c != '\n') {
+			if (len == text.length) text = grow(text);
+			text[len++] = (byte) c;
+		}
+		return new String(text, 0, len).trim();
+	}
+
+	/**
+	 * Parses the remainder of the current line as a comma-separated list of
+	 * floats and returns how many were read. The values are available through
+	 * getFloats() until the next call.
+	 */
+	public int readFloats() throws IOException {
+		int count = 0;
+		int c;
+
+		do {
+			int len = 0;
+			while ((c = read()) != EOF && c != '\n' && c != ',') {
+				if (isSpace(c)) continue;
+				if (len == token.length) token = grow(token);
+				token[len++] = (char) c;
+			}
+
+			if (len == 0 && c != ',') break;
+			if (count == floats.length) floats = grow(floats);
+			floats[count++] = parseFloat(token, len);
+		} while (c == ',');
+
+		return count;
+	}
+
+	public float[] getFloats() {
+		return floats;
+	}
+
+	public void skipLine() throws IOException {
+		while (true) {
+			for (int i=pos; i<limit; i++) {
+				if (buffer[i] == '\n') {
+					pos = i+1;
+					return;
+				}
+			}
+			pos = limit;
+			if (!fill()) return;
+		}
+	}
+
+	public void close() throws IOException {
+		input.close();
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private int read() throws IOException {
+		if (pos == limit && !fill()) return EOF;
+		return buffer[pos++] & 0xFF;
+	}
+
+	private int peek() throws IOException {
+		if (pos == limit && !fill()) return EOF;
+		return buffer[pos] & 0xFF;
+	}
+
+	private boolean fill() throws IOException {
+		bufferOffset += limit;
+		pos = limit = 0;
+		int n;
+		while ((n = input.read(buffer)) == 0);
+		if (n < 0) return false;
+		limit = n;
+		return true;
+	}
+
+	private float parseFloat(char[] cs, int len) throws IOException {
+		// Fast path for plain decimals ("-12.5"), which is all that
+		// Float.toString() writes for coordinates in a sane range
+		int i = 0;
+		boolean negative = false;
+		if (len > 0 && (cs[0] == '-' || cs[0] == '+')) {
+			negative = cs[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digitChars = 0, digits = 0, fractionDigits = 0;
+		boolean dot = false, plain = i < len;
+
+		for (; i<len; i++) {
+			char c = cs[i];
+			if (c >= '0' && c <= '9') {
+				digitChars++;
+				if (digits > 0 || c != '0') digits++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (dot) fractionDigits++;
+			} else if (c == '.' && !dot) {
+				dot = true;
+			} else {
+				plain = false;
+				break;
+			}
+		}
+
+		if (plain && digitChars > 0 && digits <= 15 && fractionDigits < POW10.length) {
+			double d = mantissa / POW10[fractionDigits];
+			float f = (float) d;
+			if (!isNearFloatMidpoint(d, f)) return negative ? -f : f;
+		}
+
+		try {
+			return Float.parseFloat(new String(cs, 0, len));
+		} catch (NumberFormatException ex) {
+			throw new IOException("Invalid number '" + new String(cs, 0, len) + "' at line " + lineNumber);
+		}
+	}
+
+	/**
+	 * Rounding the decimal to a double and then to a float may differ from
+	 * rounding it directly to a float only when the double lies (almost)
+	 * exactly halfway between two floats. Those rare values go through
+	 * Float.parseFloat() instead.
+	 */
+	private static boolean isNearFloatMidpoint(double d, float f) {
+		double err = Math.abs(d - f);
+		double tolerance = Math.ulp(d);
+		double half = Math.ulp(f) / 2;
+		return Math.abs(err - half) <= tolerance || Math.abs(err - half/2) <= tolerance;
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private static byte[] grow(byte[] array) {
+		byte[] ret = new byte[array.length * 2];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+
+	private static char[] grow(char[] array) {
+		char[] ret = new char[array.length * 2];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+
+	private static float[] grow(float[] array) {
+		float[] ret = new float[array.length * 2];
+		System.arraycopy(array, 0, ret, 0, array.length);
+		return ret;
+	}
+}
@@ -0,0 +1,102 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.utils.gdx.EarClipper;
+import aurelienribon.utils.gdx.Vector2Array;
+
+/**
+ * Immutable copy of an ImageModel.Shape, taken by ImageModel.snapshot().
+ * If the shape wasn't triangulated when the snapshot was taken, its
+ * triangles are computed from the copy on first use, on whatever thread
+ * asks for them. The arrays returned must not be modified.
+ */
+public final class ShapeSnapshot {
+	private final float[] coords;
+	private final boolean closed;
+	private final int version;
+	private final float w, h;
+	private float[] triangles, uvs;
+
+	ShapeSnapshot(float[] coords, boolean closed, int version, float w, float h, float[] triangles, float[] uvs) {
+		this.coords = coords;
+		this.closed = closed;
+		this.version = version;
+		this.w = w;
+		this.h = h;
+		this.triangles = triangles;
+		this.uvs = uvs;
+	}
+
+	/**
+	 * Returns a snapshot sharing the vertices of this one, with the given
+	 * triangulation.
+	 */
+	ShapeSnapshot withTriangles(float[] triangles, float[] uvs) {
+		return new ShapeSnapshot(coords, closed, version, w, h, triangles, uvs);
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/** Version of the shape when the snapshot was taken. */
+	public int getVersion() {return version;}
+	public boolean isClosed() {return closed;}
+	public int getVertexCount() {return coords.length / 2;}
+	public float getX(int idx) {return coords[idx*2];}
+	public float getY(int idx) {return coords[idx*2+1];}
+
+	/** Vertices, as x,y pairs. */
+	public float[] getCoords() {
+		return coords;
+	}
+
+	public synchronized boolean isTriangulated() {
+		return triangles != null;
+	}
+
+	/** Triangle vertices, as x,y pairs, three per triangle. */
+	public synchronized float[] getTriangles() {
+		triangulate();
+		return triangles;
+	}
+
+	/** Texture coordinates of the triangle vertices, or an empty array. */
+	public synchronized float[] getUVs() {
+		triangulate();
+		return uvs;
+	}
+
+	/** Number of triangle vertices. */
+	public int getTrianglesCount() {
+		return getTriangles().length / 2;
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private void triangulate() {
+		if (triangles != null) return;
+
+		// Same steps as ImageModel.Shape, for the same results
+		int n = coords.length / 2;
+		Vector2Array ts = new Vector2Array(Math.max(n * 3, 1));
+		Vector2Array us = new Vector2Array(Math.max(n * 3, 1));
+
+		if (n >= 3 && closed) {
+			new EarClipper().computeTriangles(coords, 0, n, ts);
+			if (w > 0.1f && h > 0.1f) {
+				for (int i=0; i<ts.size(); i++) us.add(ts.getX(i)/w, 1-ts.getY(i)/h);
+			}
+		}
+
+		triangles = copy(ts);
+		uvs = copy(us);
+	}
+
+	static float[] copy(Vector2Array vs) {
+		float[] fs = new float[vs.size() * 2];
+		System.arraycopy(vs.getItems(), 0, fs, 0, fs.length);
+		return fs;
+	}
+}
@@ -0,0 +1,195 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
+import com.badlogic.gdx.math.Vector2;
+import java.util.List;
+
+/**
+ * Uniform grid over the vertices of every shape of a model, used for
+ * nearest-vertex and rubber-band queries. The grid is rebuilt lazily, on
+ * the first query after a shape was added, removed or invalidated, and
+ * reuses its arrays, so queries don't allocate.
+ */
+public class VertexIndex {
+	private ImageModel model;
+	private Shape[] shapes = new Shape[16];
+	private int[] shapeVersions = new int[16];
+	private int[] shapeSizes = new int[16];
+	private int shapeCount;
+
+	private Vector2[] entries = new Vector2[256];
+	private int[] cellOf = new int[256];
+	private int[] cellStarts = new int[257];
+	private int count;
+	private float originX, originY, cellSize;
+	private int cols, rows;
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Gets the vertex nearest to (x, y) and strictly closer than the given
+	 * radius, or null.
+	 */
+	public Vector2 getNearest(ImageModel model, float x, float y, float radius) {
+		sync(model);
+		if (count == 0) return null;
+
+		int cx0 = cellX(x - radius), cx1 = cellX(x + radius);
+		int cy0 = cellY(y - radius), cy1 = cellY(y + radius);
+
+		Vector2 nearest = null;
+		float best = radius * radius;
+
+		if ((long) (cx1-cx0+1) * (cy1-cy0+1) > count) {
+			for (int i=0; i<count; i++) {
+				float d = entries[i].dst2(x, y);
+				if (d < best) {best = d; nearest = entries[i];}
+			}
+			return nearest;
+		}
+
+		for (int cy=cy0; cy<=cy1; cy++) {
+			for (int cx=cx0; cx<=cx1; cx++) {
+				int cell = cy * cols + cx;
+				for (int i=cellStarts[cell], n=cellStarts[cell+1]; i<n; i++) {
+					float d = entries[i].dst2(x, y);
+					if (d < best) {best = d; nearest = entries[i];}
+				}
+			}
+		}
+
+		return nearest;
+	}
+
+	/**
+	 * Adds to the given list every vertex inside the rectangle, edges included.
+	 */
+	public void getInside(ImageModel model, float x1, float y1, float x2, float y2, List<Vector2> out) {
+		sync(model);
+		if (count == 0) return;
+
+		int cx0 = cellX(x1), cx1 = cellX(x2);
+		int cy0 = cellY(y1), cy1 = cellY(y2);
+
+		for (int cy=cy0; cy<=cy1; cy++) {
+			for (int cx=cx0; cx<=cx1; cx++) {
+				int cell = cy * cols + cx;
+				for (int i=cellStarts[cell], n=cellStarts[cell+1]; i<n; i++) {
+					Vector2 v = entries[i];
+					if (x1 <= v.x && v.x <= x2 && y1 <= v.y && v.y <= y2) out.add(v);
+				}
+			}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private int cellX(float x) {
+		int cx = (int) Math.floor((x - originX) / cellSize);
+		return Math.max(0, Math.min(cols-1, cx));
+	}
+
+	private int cellY(float y) {
+		int cy = (int) Math.floor((y - originY) / cellSize);
+		return Math.max(0, Math.min(rows-1, cy));
+	}
+
+	private void sync(ImageModel model) {
+		if (this.model == model && !hasChanged(model)) return;
+		this.model = model;
+		rebuild();
+	}
+
+	private boolean hasChanged(ImageModel model) {
+		List<Shape> ss = model.shapes;
+		if (ss.size() != shapeCount) return true;
+		for (int i=0; i<shapeCount; i++) {
+			Shape shape = ss.get(i);
+			if (shape != shapes[i]
+				|| shape.getVersion() != shapeVersions[i]
+				|| shape.vertices.size() != shapeSizes[i]) return true;
+		}
+		return false;
+	}
+
+	private void rebuild() {
+		List<Shape> ss = model.shapes;
+		shapeCount = ss.size();
+		if (shapes.length < shapeCount) {
+			shapes = new Shape[shapeCount * 2];
+			shapeVersions = new int[shapeCount * 2];
+			shapeSizes = new int[shapeCount * 2];
+		}
+
+		count = 0;
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+		for (int i=0; i<shapeCount; i++) {
+			Shape shape = ss.get(i);
+			shapes[i] = shape;
+			shapeVersions[i] = shape.getVersion();
+			shapeSizes[i] = shape.vertices.size();
+			count += shapeSizes[i];
+
+			for (Vector2 v : shape.vertices) {
+				minX = Math.min(minX, v.x); maxX = Math.max(maxX, v.x);
+				minY = Math.min(minY, v.y); maxY = Math.max(maxY, v.y);
+			}
+		}
+
+		if (count == 0) {
+			cols = rows = 1;
+			cellSize = 1;
+			originX = originY = 0;
+			return;
+		}
+
+		// About one vertex per cell on average
+		float w = Math.max(maxX - minX, 1e-3f);
+		float h = Math.max(maxY - minY, 1e-3f);
+		cellSize = Math.max((float) Math.sqrt(w * h / count), Math.max(w, h) / 1024);
+		cols = Math.min(1024, (int) (w / cellSize) + 1);
+		rows = Math.min(1024, (int) (h / cellSize) + 1);
+		originX = minX;
+		originY = minY;
+
+		if (entries.length < count) {
+			entries = new Vector2[count * 2];
+			cellOf = new int[count * 2];
+		}
+		int cellCount = cols * rows;
+		if (cellStarts.length < cellCount + 1) cellStarts = new int[cellCount * 2 + 1];
+
+		// Counting sort of the vertices by cell
+		for (int i=0; i<=cellCount; i++) cellStarts[i] = 0;
+
+		int n = 0;
+		for (int i=0; i<shapeCount; i++) {
+			for (Vector2 v : shapes[i].vertices) {
+				int cell = cellY(v.y) * cols + cellX(v.x);
+				cellOf[n++] = cell;
+				cellStarts[cell+1]++;
+			}
+		}
+
+		for (int i=0; i<cellCount; i++) cellStarts[i+1] += cellStarts[i];
+
+		n = 0;
+		for (int i=0; i<shapeCount; i++) {
+			for (Vector2 v : shapes[i].vertices) {
+				entries[cellStarts[cellOf[n++]]++] = v;
+			}
+		}
+
+		// Shift the starts back, each one was advanced to the next cell start
+		for (int i=cellCount; i>0; i--) cellStarts[i] = cellStarts[i-1];
+		cellStarts[0] = 0;
+
+		for (int i=count; i<entries.length && entries[i] != null; i++) entries[i] = null;
+	}
+}
@@ -0,0 +1,133 @@
+package aurelienribon.libgdx.polygoneditor;
+
+import aurelienribon.utils.notifications.ChangeListener;
+import aurelienribon.utils.notifications.Changeable;
+import aurelienribon.utils.notifications.ChangeableSupport;
+import com.badlogic.gdx.math.Vector2;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Set of selected vertices. Membership is based on identity (two vertices
+ * at the same position are still different vertices) and is O(1). Every
+ * modification, including bulk ones, fires a single "selection" change.
+ */
+public class VertexSelection extends AbstractSet<Vector2> implements Changeable {
+	private final Set<Vector2> vertices = Collections.newSetFromMap(new IdentityHashMap<Vector2, Boolean>());
+	private final ChangeableSupport changeSupport = new ChangeableSupport();
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	@Override
+	public int size() {
+		return vertices.size();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return vertices.contains(o);
+	}
+
+	@Override
+	public boolean add(Vector2 v) {
+		boolean ret = vertices.add(v);
+		if (ret) fireChanged();
+		return ret;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		boolean ret = vertices.remove(o);
+		if (ret) fireChanged();
+		return ret;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends Vector2> c) {
+		boolean ret = vertices.addAll(c);
+		if (ret) fireChanged();
+		return ret;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean ret = false;
+		for (Object o : c) ret |= vertices.remove(o);
+		if (ret) fireChanged();
+		return ret;
+	}
+
+	@Override
+	public void clear() {
+		if (vertices.isEmpty()) return;
+		vertices.clear();
+		fireChanged();
+	}
+
+	@Override
+	public Iterator<Vector2> iterator() {
+		final Iterator<Vector2> it = vertices.iterator();
+		return new Iterator<Vector2>() {
+			@Override public boolean hasNext() {return it.hasNext();}
+			@Override public Vector2 next() {return it.next();}
+			@Override public void remove() {it.remove(); fireChanged();}
+		};
+	}
+
+	/**
+	 * Selects the vertex if it was not selected, unselects it otherwise.
+	 */
+	public void toggle(Vector2 v) {
+		if (!vertices.remove(v)) vertices.add(v);
+		fireChanged();
+	}
+
+	/**
+	 * Toggles every given vertex, firing a single change.
+	 */
+	public void toggleAll(Collection<Vector2> c) {
+		if (c.isEmpty()) return;
+		for (Vector2 v : c) if (!vertices.remove(v)) vertices.add(v);
+		fireChanged();
+	}
+
+	/**
+	 * Replaces the selection by the given vertices, firing a single change.
+	 */
+	public void replaceBy(Collection<Vector2> c) {
+		if (vertices.isEmpty() && c.isEmpty()) return;
+		vertices.clear();
+		vertices.addAll(c);
+		fireChanged();
+	}
+
+	public void replaceBy(Vector2 v) {
+		vertices.clear();
+		vertices.add(v);
+		fireChanged();
+	}
+
+	// -------------------------------------------------------------------------
+	// Events
+	// -------------------------------------------------------------------------
+
+	@Override
+	public void addChangeListener(ChangeListener l) {
+		changeSupport.addChangeListener(l);
+	}
+
+	@Override
+	public void removeChangeListener(ChangeListener l) {
+		changeSupport.removeChangeListener(l);
+	}
+
+	private void fireChanged() {
+		changeSupport.firePropertyChanged(this, "selection");
+	}
+}
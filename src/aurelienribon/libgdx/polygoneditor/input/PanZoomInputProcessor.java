@@ -23,23 +23,33 @@ public class PanZoomInputProcessor extends InputAdapter {
         this.canvas = canvas;
     }
 
-    public void update(float dt) {
+    /**
+     * Scrolls the camera while the arrow keys are held down. Returns true if
+     * the camera moved.
+     */
+    public boolean update(float dt) {
+        boolean moved = false;
         if (Gdx.input.isKeyPressed(Keys.LEFT)) {
             canvas.camera.translate(-scrollSpeed * dt, 0f, 0f);
             canvas.camera.update();
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Keys.RIGHT)) {
             canvas.camera.translate(scrollSpeed * dt, 0f, 0f);
             canvas.camera.update();
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Keys.UP)) {
             canvas.camera.translate(0f, scrollSpeed * dt, 0f);
             canvas.camera.update();
+            moved = true;
         }
         if (Gdx.input.isKeyPressed(Keys.DOWN)) {
             canvas.camera.translate(0f, -scrollSpeed * dt, 0f);
             canvas.camera.update();
+            moved = true;
         }
+        return moved;
     }
 
     /*@Override
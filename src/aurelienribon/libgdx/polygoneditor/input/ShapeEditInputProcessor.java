@@ -5,10 +5,11 @@ import aurelienribon.libgdx.polygoneditor.ImageModel.Shape;
 import aurelienribon.libgdx.polygoneditor.Canvas;
 import aurelienribon.libgdx.polygoneditor.Canvas.Mode;
 import aurelienribon.libgdx.polygoneditor.InputHelper;
+import aurelienribon.libgdx.polygoneditor.VertexIndex;
+import aurelienribon.libgdx.polygoneditor.VertexSelection;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.Input.Keys;
 import com.badlogic.gdx.InputAdapter;
-import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -20,6 +21,7 @@ import java.util.List;
 public class ShapeEditInputProcessor extends InputAdapter {
 	private final Canvas canvas;
 	private final Shape emptyShape = new Shape() {{closed = true;}};
+	private final VertexIndex vertexIndex = new VertexIndex();
 	private boolean touchDown = false;
 
 	public ShapeEditInputProcessor(Canvas canvas) {
@@ -34,7 +36,7 @@ public class ShapeEditInputProcessor extends InputAdapter {
 		ImageModel model = canvas.selectedModel;
 		Shape lastShape = model.shapes.isEmpty() ? emptyShape : model.shapes.get(model.shapes.size()-1);
 		List<Vector2> vs = lastShape.vertices;
-		List<Vector2> ss = canvas.selectedPoints;
+		VertexSelection ss = canvas.selectedPoints;
 		Vector2 p = canvas.screenToWorld(x, y);
 
 		canvas.mouseSelectionP1 = null;
@@ -48,6 +50,7 @@ public class ShapeEditInputProcessor extends InputAdapter {
 				} else {
 					if (vs.size() > 2 && canvas.nearestPoint == vs.get(0)) {
 						lastShape.closed = true;
+						lastShape.invalidate();
 						model.triangulate();
 					} else {
 						lastShape.vertices.add(p);
@@ -58,11 +61,9 @@ public class ShapeEditInputProcessor extends InputAdapter {
 			case EDITION:
 				if (canvas.nearestPoint != null) {
 					if (InputHelper.isCtrlDown()) {
-						if (ss.contains(canvas.nearestPoint)) ss.remove(canvas.nearestPoint);
-						else ss.add(canvas.nearestPoint);
+						ss.toggle(canvas.nearestPoint);
 					} else if (!ss.contains(canvas.nearestPoint)) {
-						ss.clear();
-						ss.add(canvas.nearestPoint);
+						ss.replaceBy(canvas.nearestPoint);
 					}
 				} else {
 					if (!InputHelper.isCtrlDown()) ss.clear();
@@ -81,21 +82,18 @@ public class ShapeEditInputProcessor extends InputAdapter {
 		touchDown = false;
 
 		ImageModel model = canvas.selectedModel;
-		List<Vector2> ss = canvas.selectedPoints;
+		VertexSelection ss = canvas.selectedPoints;
 
 		switch (canvas.mode) {
 			case EDITION:
 				if (canvas.mouseSelectionP1 != null && InputHelper.isCtrlDown()) {
-					for (Vector2 p : getPointsInSelection()) {
-						if (ss.contains(p)) ss.remove(p);
-						else ss.add(p);
-					}
+					ss.toggleAll(getPointsInSelection());
 				} else if (canvas.mouseSelectionP1 != null) {
-					ss.clear();
-					ss.addAll(getPointsInSelection());
+					ss.replaceBy(getPointsInSelection());
 				}
 
 				canvas.mouseSelectionP1 = null;
+				canvas.liveTriangulator.cancel();
 				model.triangulate();
 				break;
 		}
@@ -108,7 +106,7 @@ public class ShapeEditInputProcessor extends InputAdapter {
 		if (!touchDown || canvas.selectedModel == null) return false;
 
 		ImageModel model = canvas.selectedModel;
-		List<Vector2> ss = canvas.selectedPoints;
+		VertexSelection ss = canvas.selectedPoints;
 		Vector2 p = canvas.screenToWorld(x, y);
 
 		switch (canvas.mode) {
@@ -120,10 +118,11 @@ public class ShapeEditInputProcessor extends InputAdapter {
 					float dx = p.x - canvas.nearestPoint.x;
 					float dy = p.y - canvas.nearestPoint.y;
 					for (Vector2 pp : ss) pp.add(dx, dy);
+					model.invalidateShapesOf(ss);
+					canvas.liveTriangulator.request(model);
 				} else {
 					canvas.mouseSelectionP2 = p;
 				}
-				model.trianglesVertices.clear();
 				break;
 		}
 
@@ -138,12 +137,7 @@ public class ShapeEditInputProcessor extends InputAdapter {
 
 		Vector2 p = canvas.screenToWorld(x, y);
 		canvas.nextPoint = p;
-		canvas.nearestPoint = null;
-		float dist = 10 * canvas.camera.zoom;
-
-		for (Vector2 v : getAllPoints()) {
-			if (v.dst(p) < dist) canvas.nearestPoint = v;
-		}
+		canvas.nearestPoint = vertexIndex.getNearest(canvas.selectedModel, p.x, p.y, 10 * canvas.camera.zoom);
 
 		return false;
 	}
@@ -174,25 +168,12 @@ public class ShapeEditInputProcessor extends InputAdapter {
 		Vector2 p2 = canvas.mouseSelectionP2;
 
 		if (p1 != null && p2 != null) {
-			Rectangle rect = new Rectangle(
-				Math.min(p1.x, p2.x),
-				Math.min(p1.y, p2.y),
-				Math.abs(p2.x - p1.x),
-				Math.abs(p2.y - p1.y)
-			);
-
-			for (Vector2 p : getAllPoints()) {
-				if (rect.contains(p.x, p.y)) points.add(p);
-			}
+			vertexIndex.getInside(canvas.selectedModel,
+				Math.min(p1.x, p2.x), Math.min(p1.y, p2.y),
+				Math.max(p1.x, p2.x), Math.max(p1.y, p2.y),
+				points);
 		}
 
 		return Collections.unmodifiableList(points);
 	}
-
-	private List<Vector2> getAllPoints() {
-		ImageModel model = canvas.selectedModel;
-		List<Vector2> points = new ArrayList<Vector2>();
-		for (Shape shape : model.shapes) points.addAll(shape.vertices);
-		return Collections.unmodifiableList(points);
-	}
 }
@@ -0,0 +1,204 @@
+package aurelienribon.utils.gdx;
+
+import com.badlogic.gdx.math.Vector2;
+import java.util.List;
+
+/**
+ * Port of libgdx EarClippingTriangulator working on float arrays. It gives
+ * the same triangles, in the same order, but reuses its buffers and writes
+ * to a Vector2Array, so that triangulating again the same polygons doesn't
+ * allocate anything. An instance must not be used by several threads at
+ * once.
+ * <p/>
+ * Unlike the original, it stops instead of looping forever when no ear is
+ * found, which can happen with self-intersecting polygons.
+ */
+public class EarClipper {
+	private static final int CONCAVE = 1;
+	private static final int CONVEX = -1;
+
+	private float[] xs = new float[16];
+	private float[] ys = new float[16];
+	private int[] types = new int[16];
+	private int count;
+	private int concaveCount;
+
+	/**
+	 * Triangulates the polygon and adds the vertices of the triangles (in
+	 * clockwise order) to the output. Returns the number of vertices added.
+	 */
+	public int computeTriangles(List<Vector2> polygon, Vector2Array out) {
+		int n = polygon.size();
+		if (xs.length < n) {
+			xs = new float[n];
+			ys = new float[n];
+			types = new int[n];
+		}
+
+		for (int i=0; i<n; i++) {
+			Vector2 v = polygon.get(i);
+			xs[i] = v.x;
+			ys[i] = v.y;
+		}
+
+		return computeTriangles(n, out);
+	}
+
+	/**
+	 * Triangulates the polygon given as x,y pairs, starting at the given
+	 * offset (in floats).
+	 */
+	public int computeTriangles(float[] coords, int offset, int n, Vector2Array out) {
+		if (xs.length < n) {
+			xs = new float[n];
+			ys = new float[n];
+			types = new int[n];
+		}
+
+		for (int i=0; i<n; i++) {
+			xs[i] = coords[offset + i*2];
+			ys[i] = coords[offset + i*2 + 1];
+		}
+
+		return computeTriangles(n, out);
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private int computeTriangles(int n, Vector2Array out) {
+		int start = out.size();
+		count = n;
+
+		while (count > 3) {
+			classifyVertices();
+
+			boolean found = false;
+			for (int i=0, vertexCount=count; i<vertexCount; i++) {
+				if (isEarTip(i)) {
+					cutEarTip(i, out);
+					found = true;
+					break;
+				}
+			}
+
+			if (!found) break;
+		}
+
+		if (count == 3) {
+			for (int i=0; i<3; i++) out.add(xs[i], ys[i]);
+		}
+
+		return out.size() - start;
+	}
+
+	private boolean isClockwise() {
+		float area = 0;
+		for (int i=0; i<count; i++) {
+			int j = next(i);
+			area += xs[i] * ys[j] - xs[j] * ys[i];
+		}
+		return area < 0;
+	}
+
+	private void classifyVertices() {
+		concaveCount = 0;
+		if (!isClockwise()) reverse();
+
+		for (int i=0; i<count; i++) {
+			int p = previous(i), n = next(i);
+			if (areaSign(xs[p], ys[p], xs[i], ys[i], xs[n], ys[n]) >= 0) {
+				types[i] = CONVEX;
+			} else {
+				types[i] = CONCAVE;
+				concaveCount++;
+			}
+		}
+	}
+
+	private void reverse() {
+		for (int i=0, j=count-1; i<j; i++, j--) {
+			float x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+			float y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+		}
+	}
+
+	private static int areaSign(float x1, float y1, float x2, float y2, float x3, float y3) {
+		// doubles avoid rare zero results from float imprecision
+		double area = 0;
+		area += (double) x1 * (y3 - y2);
+		area += (double) x2 * (y1 - y3);
+		area += (double) x3 * (y2 - y1);
+		return (int) Math.signum(area);
+	}
+
+	private boolean isEarTip(int idx) {
+		if (concaveCount == 0) return true;
+
+		int p = previous(idx), n = next(idx);
+		float x1 = xs[p], y1 = ys[p], x2 = xs[idx], y2 = ys[idx], x3 = xs[n], y3 = ys[n];
+
+		// The last vertex is not tested, like in the original
+		for (int i=0; i<count-1; i++) {
+			if (types[i] != CONCAVE) continue;
+			int s1 = areaSign(x1, y1, x2, y2, xs[i], ys[i]);
+			int s2 = areaSign(x2, y2, x3, y3, xs[i], ys[i]);
+			int s3 = areaSign(x3, y3, x1, y1, xs[i], ys[i]);
+			if (s1 > 0 && s2 > 0 && s3 > 0) return false;
+			if (s1 <= 0 && s2 <= 0 && s3 <= 0) return false;
+		}
+
+		return true;
+	}
+
+	private void cutEarTip(int idx, Vector2Array out) {
+		int p = previous(idx), n = next(idx);
+
+		if (!isCollinear(p, idx, n)) {
+			out.add(xs[p], ys[p]);
+			out.add(xs[idx], ys[idx]);
+			out.add(xs[n], ys[n]);
+		}
+
+		remove(idx);
+		if (count >= 3) removeCollinearNeighbors(idx);
+	}
+
+	private void removeCollinearNeighbors(int cutIdx) {
+		int nextIdx = cutIdx % count;
+		int prevIdx = previous(nextIdx);
+
+		if (isCollinear(nextIdx)) {
+			remove(nextIdx);
+			if (count > 3) {
+				prevIdx = previous(nextIdx);
+				if (isCollinear(prevIdx)) remove(prevIdx);
+			}
+		} else if (isCollinear(prevIdx)) {
+			remove(prevIdx);
+		}
+	}
+
+	private boolean isCollinear(int idx) {
+		return isCollinear(previous(idx), idx, next(idx));
+	}
+
+	private boolean isCollinear(int p, int idx, int n) {
+		return areaSign(xs[p], ys[p], xs[idx], ys[idx], xs[n], ys[n]) == 0;
+	}
+
+	private void remove(int idx) {
+		System.arraycopy(xs, idx+1, xs, idx, count-idx-1);
+		System.arraycopy(ys, idx+1, ys, idx, count-idx-1);
+		count--;
+	}
+
+	private int previous(int idx) {
+		return idx == 0 ? count - 1 : idx - 1;
+	}
+
+	private int next(int idx) {
+		return idx == count - 1 ? 0 : idx + 1;
+	}
+}
@@ -131,6 +131,10 @@ public class Label {
 		Tween.to(this, Accessor.OFFSET_X, 0.2f).target(tx).start(tweenManager);
 	}
 
+	public boolean isAnimating() {
+		return tweenManager.size() > 0;
+	}
+
 	public void draw(SpriteBatch batch) {
 		tweenManager.update(Gdx.graphics.getDeltaTime());
 
@@ -0,0 +1,408 @@
+package aurelienribon.utils.gdx;
+
+import com.badlogic.gdx.math.Vector2;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces the number of vertices of closed polygons. Vertices are removed
+ * as long as the simplified outline stays within the maximum error of the
+ * original one, and further if there are still more vertices than the
+ * maximum count. At least 3 vertices are always kept.
+ * <p/>
+ * Two methods are available. Douglas-Peucker bounds the distance between
+ * the removed vertices and the simplified outline. Visvalingam bounds the
+ * area of the triangle each removed vertex formed with its neighbours,
+ * which better preserves the overall shape at low vertex counts.
+ * <p/>
+ * Unless disabled, the simplified polygon is guaranteed not to intersect
+ * itself if the original one doesn't, possibly keeping more vertices than
+ * asked. Instances can be shared between threads once configured.
+ */
+public class PolygonSimplifier {
+	public static enum Method {DOUGLAS_PEUCKER, VISVALINGAM}
+
+	private Method method = Method.DOUGLAS_PEUCKER;
+	private float maxError = 1;
+	private int maxVertices = Integer.MAX_VALUE;
+	private boolean keepSimple = true;
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	public void setMethod(Method method) {
+		this.method = method;
+	}
+
+	/**
+	 * Maximum error: a distance in pixels for Douglas-Peucker, an area in
+	 * square pixels for Visvalingam.
+	 */
+	public void setMaxError(float maxError) {
+		this.maxError = Math.max(0, maxError);
+	}
+
+	public void setMaxVertices(int maxVertices) {
+		this.maxVertices = Math.max(3, maxVertices);
+	}
+
+	public void setKeepSimple(boolean keepSimple) {
+		this.keepSimple = keepSimple;
+	}
+
+	public Method getMethod() {return method;}
+	public float getMaxError() {return maxError;}
+	public int getMaxVertices() {return maxVertices;}
+	public boolean isKeepSimple() {return keepSimple;}
+
+	/**
+	 * Simplifies a closed polygon. The returned vertices are the original
+	 * instances, in their original order.
+	 */
+	public List<Vector2> simplify(List<Vector2> polygon) {
+		if (polygon.size() <= 3) return new ArrayList<Vector2>(polygon);
+
+		boolean[] kept = method == Method.VISVALINGAM
+			? visvalingam(polygon)
+			: douglasPeucker(polygon);
+
+		List<Vector2> result = new ArrayList<Vector2>();
+		for (int i=0; i<polygon.size(); i++) if (kept[i]) result.add(polygon.get(i));
+		return result;
+	}
+
+	/**
+	 * Gets, for each vertex of a closed polygon, the Douglas-Peucker
+	 * tolerance under which it is kept. The tolerance of a vertex is never
+	 * larger than the one of the vertex that split its parent segment, so
+	 * keeping the vertices above a threshold, or the n most important ones,
+	 * gives the same outline as the recursive algorithm.
+	 */
+	public static float[] getImportances(List<Vector2> polygon) {
+		int n = polygon.size();
+		float[] importances = new float[n];
+
+		// Anchors: the leftmost vertex, which is always a corner of the
+		// outline, and the vertex farthest from it
+		int first = 0;
+		for (int i=1; i<n; i++) {
+			Vector2 v = polygon.get(i), f = polygon.get(first);
+			if (v.x < f.x || (v.x == f.x && v.y < f.y)) first = i;
+		}
+
+		int far = first;
+		float farDist = -1;
+		for (int i=0; i<n; i++) {
+			float d = polygon.get(i).dst2(polygon.get(first));
+			if (d > farDist) {farDist = d; far = i;}
+		}
+		if (far < first) far += n;
+
+		importances[first] = Float.POSITIVE_INFINITY;
+		importances[far % n] = Float.POSITIVE_INFINITY;
+
+		// Explicit stack of (start, end, parent importance), with end > start
+		// and indices taken modulo n, to avoid deep recursions
+		int[] stack = new int[64];
+		float[] stackImp = new float[32];
+		int top = 0;
+		stack[top*2] = first; stack[top*2+1] = far; stackImp[top++] = Float.POSITIVE_INFINITY;
+		stack[top*2] = far; stack[top*2+1] = first + n; stackImp[top++] = Float.POSITIVE_INFINITY;
+
+		while (top > 0) {
+			top--;
+			int s = stack[top*2], e = stack[top*2+1];
+			float parentImp = stackImp[top];
+			if (e - s < 2) continue;
+
+			Vector2 a = polygon.get(s % n), b = polygon.get(e % n);
+			int best = -1;
+			float bestDist = -1;
+			for (int i=s+1; i<e; i++) {
+				float d = distToSegment2(polygon.get(i % n), a, b);
+				if (d > bestDist) {bestDist = d; best = i;}
+			}
+
+			float imp = Math.min((float) Math.sqrt(bestDist), parentImp);
+			importances[best % n] = imp;
+
+			if (top + 2 > stackImp.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				stackImp = Arrays.copyOf(stackImp, stackImp.length * 2);
+			}
+			stack[top*2] = s; stack[top*2+1] = best; stackImp[top++] = imp;
+			stack[top*2] = best; stack[top*2+1] = e; stackImp[top++] = imp;
+		}
+
+		return importances;
+	}
+
+	/**
+	 * Squared distance from p to the segment [a, b].
+	 */
+	public static float distToSegment2(Vector2 p, Vector2 a, Vector2 b) {
+		float dx = b.x - a.x, dy = b.y - a.y;
+		float len2 = dx*dx + dy*dy;
+		float t = len2 > 0 ? ((p.x - a.x) * dx + (p.y - a.y) * dy) / len2 : 0;
+		t = Math.max(0, Math.min(1, t));
+		float x = a.x + t*dx - p.x, y = a.y + t*dy - p.y;
+		return x*x + y*y;
+	}
+
+	/**
+	 * Tells if no two edges of a closed polygon touch each other, except
+	 * consecutive edges at their common vertex.
+	 */
+	public static boolean isSimple(List<Vector2> polygon) {
+		int n = polygon.size();
+		float[] xs = new float[n], ys = new float[n];
+		for (int i=0; i<n; i++) {
+			xs[i] = polygon.get(i).x;
+			ys[i] = polygon.get(i).y;
+		}
+		return isSimple(xs, ys, n);
+	}
+
+	// -------------------------------------------------------------------------
+	// Douglas-Peucker
+	// -------------------------------------------------------------------------
+
+	private boolean[] douglasPeucker(List<Vector2> polygon) {
+		int n = polygon.size();
+		final float[] importances = getImportances(polygon);
+
+		// Vertices by decreasing importance, ties in polygon order
+		Integer[] order = new Integer[n];
+		for (int i=0; i<n; i++) order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				int c = Float.compare(importances[o2], importances[o1]);
+				return c != 0 ? c : o1 - o2;
+			}
+		});
+
+		int count = 0;
+		while (count < n && importances[order[count]] > maxError) count++;
+		count = Math.min(n, Math.max(3, Math.min(count, maxVertices)));
+
+		boolean[] kept = new boolean[n];
+		for (int i=0; i<count; i++) kept[order[i]] = true;
+		if (!keepSimple || count == n) return kept;
+
+		float[] xs = new float[n], ys = new float[n];
+		if (isSimple(polygon, kept, xs, ys)) return kept;
+		if (!isSimple(polygon)) return kept;
+
+		// Adds the next most important vertices, by growing steps, until the
+		// outline doesn't intersect itself anymore
+		int step = 1;
+		while (true) {
+			int next = Math.min(n, count + step);
+			for (int i=count; i<next; i++) kept[order[i]] = true;
+			count = next;
+			if (count == n || isSimple(polygon, kept, xs, ys)) break;
+			step *= 2;
+		}
+
+		// Gives back the least important vertices of the last step while the
+		// outline stays simple
+		for (int i=count-1; i > count-1 - step/2 && i >= 3; i--) {
+			kept[order[i]] = false;
+			if (!isSimple(polygon, kept, xs, ys)) {
+				kept[order[i]] = true;
+				break;
+			}
+		}
+
+		return kept;
+	}
+
+	// -------------------------------------------------------------------------
+	// Visvalingam
+	// -------------------------------------------------------------------------
+
+	private static class Candidate implements Comparable<Candidate> {
+		public final int idx, stamp;
+		public final float area;
+
+		public Candidate(int idx, int stamp, float area) {
+			this.idx = idx;
+			this.stamp = stamp;
+			this.area = area;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			int c = Float.compare(area, o.area);
+			return c != 0 ? c : idx - o.idx;
+		}
+	}
+
+	/**
+	 * The intersection guard tests each removal against every remaining
+	 * edge, so it is quadratic: this method is meant for edited shapes of a
+	 * few hundred vertices rather than raw traced outlines.
+	 */
+	private boolean[] visvalingam(List<Vector2> polygon) {
+		int n = polygon.size();
+		int[] prev = new int[n], next = new int[n], stamps = new int[n];
+		boolean[] kept = new boolean[n];
+		Arrays.fill(kept, true);
+
+		boolean guard = keepSimple && isSimple(polygon);
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(n);
+		for (int i=0; i<n; i++) {
+			prev[i] = (i + n - 1) % n;
+			next[i] = (i + 1) % n;
+		}
+		for (int i=0; i<n; i++) queue.add(new Candidate(i, 0, getArea(polygon, prev[i], i, next[i])));
+
+		int count = n;
+		float lastArea = 0;
+
+		while (count > 3 && !queue.isEmpty()) {
+			Candidate c = queue.poll();
+			if (c.stamp != stamps[c.idx] || !kept[c.idx]) continue;
+
+			// The effective area never decreases, so that a vertex is never
+			// removed with a smaller error than the ones removed before it
+			float area = Math.max(c.area, lastArea);
+			if (area > maxError && count <= maxVertices) break;
+
+			// Blocked removals are retried when a neighbour is removed
+			int p = prev[c.idx], q = next[c.idx];
+			if (guard && intersects(polygon, next, p, q)) continue;
+
+			kept[c.idx] = false;
+			count--;
+			lastArea = area;
+			next[p] = q;
+			prev[q] = p;
+
+			stamps[p]++;
+			stamps[q]++;
+			queue.add(new Candidate(p, stamps[p], getArea(polygon, prev[p], p, q)));
+			queue.add(new Candidate(q, stamps[q], getArea(polygon, p, q, next[q])));
+		}
+
+		return kept;
+	}
+
+	private static float getArea(List<Vector2> polygon, int a, int b, int c) {
+		Vector2 va = polygon.get(a), vb = polygon.get(b), vc = polygon.get(c);
+		return Math.abs((vb.x - va.x) * (vc.y - va.y) - (vc.x - va.x) * (vb.y - va.y)) / 2;
+	}
+
+	/**
+	 * Tells if the segment [p, q] would touch an edge of the remaining
+	 * polygon other than the ones adjacent to p and q.
+	 */
+	private static boolean intersects(List<Vector2> polygon, int[] next, int p, int q) {
+		Vector2 a = polygon.get(p), b = polygon.get(q);
+		for (int i=next[q]; next[i] != p; i=next[i]) {
+			Vector2 c = polygon.get(i), d = polygon.get(next[i]);
+			if (segmentsTouch(a.x, a.y, b.x, b.y, c.x, c.y, d.x, d.y)) return true;
+		}
+		return false;
+	}
+
+	// -------------------------------------------------------------------------
+	// Simplicity test
+	// -------------------------------------------------------------------------
+
+	private static boolean isSimple(List<Vector2> polygon, boolean[] kept, float[] xs, float[] ys) {
+		int k = 0;
+		for (int i=0; i<polygon.size(); i++) {
+			if (!kept[i]) continue;
+			xs[k] = polygon.get(i).x;
+			ys[k] = polygon.get(i).y;
+			k++;
+		}
+		return isSimple(xs, ys, k);
+	}
+
+	/**
+	 * Sweeps the edges by increasing min x, only testing the pairs whose x
+	 * ranges overlap.
+	 */
+	private static boolean isSimple(float[] xs, float[] ys, int n) {
+		if (n < 3) return false;
+
+		final float[] minX = new float[n];
+		Integer[] edges = new Integer[n];
+		for (int i=0; i<n; i++) {
+			minX[i] = Math.min(xs[i], xs[(i+1) % n]);
+			edges[i] = i;
+		}
+		Arrays.sort(edges, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Float.compare(minX[o1], minX[o2]);
+			}
+		});
+
+		for (int ei=0; ei<n; ei++) {
+			int i = edges[ei], i2 = (i+1) % n;
+			float maxX = Math.max(xs[i], xs[i2]);
+
+			for (int ej=ei+1; ej<n && minX[edges[ej]] <= maxX; ej++) {
+				int j = edges[ej], j2 = (j+1) % n;
+
+				if (j2 == i || i2 == j) {
+					// Consecutive edges only share their common vertex,
+					// unless one folds back over the other
+					int shared = i2 == j ? j : i;
+					int a = i2 == j ? i : i2, b = i2 == j ? j2 : j;
+					if (n == 3 ? isCollinear(xs, ys, shared, a, b) : isFoldedBack(xs, ys, shared, a, b)) return false;
+					continue;
+				}
+
+				if (segmentsTouch(xs[i], ys[i], xs[i2], ys[i2], xs[j], ys[j], xs[j2], ys[j2])) return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static boolean isCollinear(float[] xs, float[] ys, int s, int a, int b) {
+		return cross(xs[s], ys[s], xs[a], ys[a], xs[b], ys[b]) == 0;
+	}
+
+	private static boolean isFoldedBack(float[] xs, float[] ys, int s, int a, int b) {
+		float ax = xs[a] - xs[s], ay = ys[a] - ys[s];
+		float bx = xs[b] - xs[s], by = ys[b] - ys[s];
+		return ax * by - ay * bx == 0 && ax * bx + ay * by > 0;
+	}
+
+	private static boolean segmentsTouch(float ax, float ay, float bx, float by, float cx, float cy, float dx, float dy) {
+		if (Math.max(ax, bx) < Math.min(cx, dx) || Math.max(cx, dx) < Math.min(ax, bx)) return false;
+		if (Math.max(ay, by) < Math.min(cy, dy) || Math.max(cy, dy) < Math.min(ay, by)) return false;
+
+		float d1 = cross(cx, cy, dx, dy, ax, ay);
+		float d2 = cross(cx, cy, dx, dy, bx, by);
+		float d3 = cross(ax, ay, bx, by, cx, cy);
+		float d4 = cross(ax, ay, bx, by, dx, dy);
+
+		if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) return true;
+
+		// Touching or collinear cases, the bounding boxes overlap
+		return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay))
+			|| (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by))
+			|| (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy))
+			|| (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+	}
+
+	private static float cross(float ax, float ay, float bx, float by, float px, float py) {
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+
+	private static boolean onSegment(float ax, float ay, float bx, float by, float px, float py) {
+		return Math.min(ax, bx) <= px && px <= Math.max(ax, bx)
+			&& Math.min(ay, by) <= py && py <= Math.max(ay, by);
+	}
+}
@@ -0,0 +1,372 @@
+package aurelienribon.utils.gdx;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU cache of textures loaded from image files, keyed by canonical path
+ * and modification time. The least recently used textures are disposed
+ * when the total size goes over the byte budget. Textures currently
+ * acquired by someone are never evicted.
+ * <p/>
+ * Images can also be decoded on background threads, the textures being
+ * uploaded on the GL thread once ready. Images waited for by a callback are
+ * decoded before prefetched ones, the most recent request first, and
+ * requests not started yet can be cancelled, so that browsing quickly
+ * through images doesn't queue up stale decodes. Images that cannot be
+ * decoded are not tried again until their file changes.
+ */
+public class TextureCache {
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final List<Entry> outdatedEntries = new ArrayList<Entry>();
+	private final Map<String, Decode> pendingLoads = new HashMap<String, Decode>();
+	private final Map<String, Long> failedLoads = new HashMap<String, Long>();
+	private final ThreadPoolExecutor decoder = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+		new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "TextureCache decoder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	private long decodeCount;
+	private long budget;
+	private long usedBytes;
+	private int hitCount, missCount, evictionCount;
+
+	private static class Entry {
+		public final Texture texture;
+		public final long lastModified;
+		public final long bytes;
+		public int refs;
+
+		public Entry(Texture texture, long lastModified) {
+			this.texture = texture;
+			this.lastModified = lastModified;
+			this.bytes = 4L * texture.getWidth() * texture.getHeight();
+		}
+	}
+
+	/**
+	 * Decoding of an image. Tasks run by order of priority: the ones with
+	 * callbacks first, then the most recent.
+	 */
+	private class Decode implements Runnable, Comparable<Decode> {
+		public final File file;
+		public final long lastModified;
+		public final boolean prefetch;
+		public final long order = decodeCount++;
+		public final List<Callback> callbacks = new ArrayList<Callback>(1);
+
+		public Decode(File file, long lastModified, boolean prefetch) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.prefetch = prefetch;
+		}
+
+		@Override
+		public void run() {
+			final Pixmap pixmap = decode(file);
+			Gdx.app.postRunnable(new Runnable() {@Override public void run() {
+				loaded(Decode.this, pixmap);
+			}});
+		}
+
+		@Override
+		public int compareTo(Decode o) {
+			if (prefetch != o.prefetch) return prefetch ? 1 : -1;
+			return order > o.order ? -1 : order < o.order ? 1 : 0;
+		}
+	}
+
+	public static interface Callback {
+		public void loaded(Texture texture);
+		public void failed(File file);
+	}
+
+	public TextureCache(long budget) {
+		this.budget = budget;
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Gets the texture of the given image file, loading it if needed, and
+	 * protects it from eviction until release() is called. Must be called
+	 * on the GL thread.
+	 */
+	public Texture acquire(File file) {
+		Entry e = getEntry(file);
+
+		if (e != null) {
+			hitCount++;
+		} else {
+			missCount++;
+			e = add(file, file.lastModified(), new Texture(Gdx.files.absolute(file.getPath())));
+		}
+
+		e.refs++;
+		evict();
+		return e.texture;
+	}
+
+	/**
+	 * Same as acquire(), but if the texture is not cached yet, the image is
+	 * decoded on a background thread and the callback is called later on
+	 * the GL thread. The callback owns the texture and has to release it.
+	 * If the image cannot be decoded, or already failed to and didn't change
+	 * since, the callback is told instead. Must be called on the GL thread.
+	 */
+	public void acquireAsync(File file, Callback callback) {
+		Entry e = getEntry(file);
+
+		if (e != null) {
+			hitCount++;
+			e.refs++;
+			callback.loaded(e.texture);
+		} else if (hasFailed(file)) {
+			callback.failed(file);
+		} else {
+			missCount++;
+			load(file, callback, false);
+		}
+	}
+
+	/**
+	 * Cancels a call to acquireAsync() whose callback wasn't called yet. If
+	 * nothing else waits for the image and its decoding didn't start, it is
+	 * dropped. Must be called on the GL thread.
+	 */
+	public void cancel(File file, Callback callback) {
+		String key = getKey(file);
+		Decode d = pendingLoads.get(key);
+		if (d == null || !d.callbacks.remove(callback)) return;
+		if (d.callbacks.isEmpty() && decoder.remove(d)) pendingLoads.remove(key);
+	}
+
+	/**
+	 * Starts to decode the images in the background if they are not cached,
+	 * so that a later acquire is immediate. Pending prefetches of other
+	 * images are dropped if their decoding didn't start, so only the last
+	 * images given are prefetched. Must be called on the GL thread.
+	 */
+	public void prefetch(List<File> files) {
+		Set<String> keys = new HashSet<String>();
+		for (File file : files) keys.add(getKey(file));
+
+		for (Iterator<Map.Entry<String, Decode>> it = pendingLoads.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Decode> e = it.next();
+			Decode d = e.getValue();
+			if (d.prefetch && !keys.contains(e.getKey()) && d.callbacks.isEmpty() && decoder.remove(d)) it.remove();
+		}
+
+		for (File file : files) {
+			if (!contains(file) && !hasFailed(file)) load(file, null, true);
+		}
+	}
+
+	public boolean isLoading(File file) {
+		return pendingLoads.containsKey(getKey(file));
+	}
+
+	/**
+	 * Releases a texture obtained from acquire(). It stays cached until it
+	 * gets evicted.
+	 */
+	public void release(Texture texture) {
+		for (Iterator<Entry> it = outdatedEntries.iterator(); it.hasNext();) {
+			Entry e = it.next();
+			if (e.texture == texture) {
+				if (--e.refs <= 0) {
+					it.remove();
+					e.texture.dispose();
+				}
+				return;
+			}
+		}
+
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			Entry e = it.next();
+			if (e.texture == texture) {
+				e.refs = Math.max(0, e.refs - 1);
+				break;
+			}
+		}
+		evict();
+	}
+
+	public boolean contains(File file) {
+		Entry e = entries.get(getKey(file));
+		return e != null && e.lastModified == file.lastModified();
+	}
+
+	public void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	public long getBudget() {return budget;}
+	public long getUsedBytes() {return usedBytes;}
+	public int getSize() {return entries.size();}
+	public int getHitCount() {return hitCount;}
+	public int getMissCount() {return missCount;}
+	public int getEvictionCount() {return evictionCount;}
+
+	/**
+	 * Disposes every texture that is not currently acquired, and stops the
+	 * background decoding.
+	 */
+	public void dispose() {
+		decoder.shutdownNow();
+		pendingLoads.clear();
+		failedLoads.clear();
+		clear();
+	}
+
+	/**
+	 * Disposes every texture that is not currently acquired.
+	 */
+	public void clear() {
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			Entry e = it.next();
+			if (e.refs > 0) continue;
+			it.remove();
+			dispose(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d textures, %d/%d KB, %d hits, %d misses, %d evictions",
+			entries.size(), usedBytes / 1024, budget / 1024, hitCount, missCount, evictionCount);
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private static String getKey(File file) {
+		// Same image reached through a link or a ".." path shares its entry
+		try {
+			return file.getCanonicalPath();
+		} catch (IOException ex) {
+			return file.getAbsolutePath();
+		}
+	}
+
+	private Entry getEntry(File file) {
+		Entry e = entries.get(getKey(file));
+		return e != null && e.lastModified == file.lastModified() ? e : null;
+	}
+
+	private boolean hasFailed(File file) {
+		String key = getKey(file);
+		Long lastModified = failedLoads.get(key);
+		if (lastModified == null) return false;
+		if (lastModified == file.lastModified()) return true;
+		failedLoads.remove(key);
+		return false;
+	}
+
+	private void load(File file, Callback callback, boolean prefetch) {
+		String key = getKey(file);
+		Decode d = pendingLoads.get(key);
+
+		if (d == null) {
+			d = new Decode(file, file.lastModified(), prefetch);
+			pendingLoads.put(key, d);
+			decoder.execute(d);
+
+		} else if (!prefetch && decoder.remove(d)) {
+			// Not started yet: queue it again as the most urgent request
+			Decode urgent = new Decode(file, d.lastModified, false);
+			urgent.callbacks.addAll(d.callbacks);
+			pendingLoads.put(key, urgent);
+			decoder.execute(urgent);
+			d = urgent;
+		}
+
+		if (callback != null) d.callbacks.add(callback);
+	}
+
+	private Pixmap decode(File file) {
+		try {
+			return new Pixmap(Gdx.files.absolute(file.getPath()));
+		} catch (RuntimeException ex) {
+			Gdx.app.error("TextureCache", "Cannot decode " + file.getPath(), ex);
+			return null;
+		}
+	}
+
+	private void loaded(Decode d, Pixmap pixmap) {
+		String key = getKey(d.file);
+		if (pendingLoads.get(key) != d) {
+			if (pixmap != null) pixmap.dispose();
+			return;
+		}
+		pendingLoads.remove(key);
+
+		if (pixmap == null) {
+			failedLoads.put(key, d.lastModified);
+			for (Callback callback : d.callbacks) callback.failed(d.file);
+			return;
+		}
+
+		Texture texture = new Texture(pixmap);
+		pixmap.dispose();
+
+		Entry e = add(d.file, d.lastModified, texture);
+		e.refs += d.callbacks.size();
+		for (Callback callback : d.callbacks) callback.loaded(texture);
+		evict();
+	}
+
+	private Entry add(File file, long lastModified, Texture texture) {
+		Entry e = new Entry(texture, lastModified);
+		Entry old = entries.put(getKey(file), e);
+		usedBytes += e.bytes;
+
+		if (old != null) {
+			// The file changed on disk. Keep the outdated texture alive until
+			// it is released if someone still uses it.
+			usedBytes -= old.bytes;
+			if (old.refs > 0) outdatedEntries.add(old);
+			else old.texture.dispose();
+		}
+
+		return e;
+	}
+
+	private void evict() {
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext() && usedBytes > budget;) {
+			Entry e = it.next().getValue();
+			if (e.refs > 0) continue;
+			it.remove();
+			dispose(e);
+			evictionCount++;
+		}
+	}
+
+	private void dispose(Entry e) {
+		usedBytes -= e.bytes;
+		e.texture.dispose();
+	}
+}
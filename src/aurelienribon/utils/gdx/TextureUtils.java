@@ -10,8 +10,6 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
  * @author Aurelien Ribon | http://www.aurelienribon.com/
  */
 public class TextureUtils {
-	private static final int[] potWidths = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048, 5096};
-
 	// -------------------------------------------------------------------------
 
 	public static TextureRegion getPOTTexture(String path) {
@@ -60,9 +58,8 @@ public class TextureUtils {
 	// -------------------------------------------------------------------------
 
 	private static int getNearestPOT(int d) {
-		for (int i=0; i<potWidths.length; i++)
-			if (d <= potWidths[i])
-				return potWidths[i];
-		return -1;
+		int pot = 1;
+		while (pot < d) pot <<= 1;
+		return pot;
 	}
 }
@@ -0,0 +1,311 @@
+package aurelienribon.utils.gdx;
+
+import aurelienribon.utils.io.ImageSizeHelper;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Image too large to fit in a single texture. It is split into square
+ * tiles, organized in a pyramid of levels: level 0 is the full resolution
+ * and each level halves the previous one, up to a level made of a single
+ * tile. Only the tiles visible under the camera, at the level matching its
+ * zoom, are decoded (on background threads) and uploaded to the GPU. The
+ * single-tile level is drawn behind them while they load. Tiles that cannot
+ * be decoded are not requested again.
+ * <p/>
+ * The image covers the world rectangle (0, 0, width, height), like a sprite
+ * at the origin.
+ */
+public class TiledImage {
+	private final File file;
+	private final int width, height;
+	private final int tileSize;
+	private final int levelCount;
+	private final Runnable listener;
+
+	private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+	private final Map<Long, Request> requests = new HashMap<Long, Request>();
+	private final Set<Long> failedTiles = new HashSet<Long>();
+	private final ExecutorService decoder = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "TiledImage decoder");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private long budget = 128L * 1024 * 1024;
+	private long usedBytes;
+	private volatile int frame;
+	private boolean disposed;
+
+	private static class Tile {
+		public final Texture texture;
+		public final long bytes;
+		public int lastDrawnFrame;
+
+		public Tile(Texture texture) {
+			this.texture = texture;
+			this.bytes = 4L * texture.getWidth() * texture.getHeight();
+		}
+	}
+
+	private static class Request {
+		public volatile int lastWantedFrame;
+	}
+
+	/**
+	 * @param tileSize Size of the tiles, in texels. Must not be larger than
+	 * the maximum texture size.
+	 * @param listener Called on the GL thread every time a tile is ready to
+	 * be drawn, typically to request a new frame. Can be null.
+	 */
+	public TiledImage(File file, int tileSize, Runnable listener) throws IOException {
+		Dimension size = ImageSizeHelper.getSize(file);
+		this.file = file;
+		this.width = size.width;
+		this.height = size.height;
+		this.tileSize = tileSize;
+		this.listener = listener;
+
+		int levels = 1;
+		while (Math.max(width, height) > tileSize << (levels-1)) levels++;
+		this.levelCount = levels;
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	public int getWidth() {return width;}
+	public int getHeight() {return height;}
+	public int getTileSize() {return tileSize;}
+	public int getLevelCount() {return levelCount;}
+	public int getTileCount() {return tiles.size();}
+	public long getUsedBytes() {return usedBytes;}
+
+	/**
+	 * Sets the amount of texture memory kept for tiles that are not visible
+	 * anymore. Visible tiles are never evicted.
+	 */
+	public void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Draws the visible tiles and requests the missing ones. The batch must
+	 * already be started with the camera projection. Must be called on the
+	 * GL thread.
+	 */
+	public void draw(SpriteBatch batch, OrthographicCamera camera) {
+		frame++;
+
+		int topLevel = levelCount-1;
+		drawTile(batch, topLevel, 0, 0, true);
+
+		int level = getLevel(camera.zoom);
+		if (level == topLevel) return;
+
+		int span = tileSize << level;
+		float halfW = camera.viewportWidth * camera.zoom / 2;
+		float halfH = camera.viewportHeight * camera.zoom / 2;
+
+		// Tiles are indexed from the top of the image, world y goes up
+		float x1 = camera.position.x - halfW, x2 = camera.position.x + halfW;
+		float y1 = height - (camera.position.y + halfH), y2 = height - (camera.position.y - halfH);
+
+		int tx0 = Math.max(0, (int) Math.floor(x1 / span));
+		int tx1 = Math.min((width-1) / span, (int) Math.floor(x2 / span));
+		int ty0 = Math.max(0, (int) Math.floor(y1 / span));
+		int ty1 = Math.min((height-1) / span, (int) Math.floor(y2 / span));
+
+		for (int ty=ty0; ty<=ty1; ty++) {
+			for (int tx=tx0; tx<=tx1; tx++) {
+				drawTile(batch, level, tx, ty, false);
+			}
+		}
+	}
+
+	/**
+	 * Gets the pyramid level to use at the given camera zoom: the coarsest
+	 * one that still has at least one texel per screen pixel.
+	 */
+	public int getLevel(float zoom) {
+		int level = 0;
+		while (level < levelCount-1 && 2 << level <= zoom) level++;
+		return level;
+	}
+
+	/**
+	 * Disposes every tile and stops the background decoding.
+	 */
+	public void dispose() {
+		disposed = true;
+		decoder.shutdownNow();
+		requests.clear();
+		failedTiles.clear();
+		for (Tile tile : tiles.values()) tile.texture.dispose();
+		tiles.clear();
+		usedBytes = 0;
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private static long getKey(int level, int tx, int ty) {
+		return ((long) level << 48) | ((long) tx << 24) | ty;
+	}
+
+	private Rectangle getSourceRegion(int level, int tx, int ty) {
+		int span = tileSize << level;
+		int x = tx * span, y = ty * span;
+		return new Rectangle(x, y, Math.min(span, width - x), Math.min(span, height - y));
+	}
+
+	private void drawTile(SpriteBatch batch, int level, int tx, int ty, boolean pinned) {
+		long key = getKey(level, tx, ty);
+		Tile tile = tiles.get(key);
+
+		if (tile == null) {
+			if (!failedTiles.contains(key)) request(key, level, tx, ty);
+			return;
+		}
+
+		tile.lastDrawnFrame = pinned ? Integer.MAX_VALUE : frame;
+		Rectangle r = getSourceRegion(level, tx, ty);
+		batch.draw(tile.texture, r.x, height - r.y - r.height, r.width, r.height);
+	}
+
+	private void request(final long key, final int level, final int tx, final int ty) {
+		Request req = requests.get(key);
+		if (req != null) {
+			req.lastWantedFrame = frame;
+			return;
+		}
+
+		final Request request = new Request();
+		request.lastWantedFrame = frame;
+		requests.put(key, request);
+
+		decoder.execute(new Runnable() {@Override public void run() {
+			// Skip the tiles that went out of view while waiting in the queue,
+			// they are requested again if they come back
+			final boolean skipped = frame - request.lastWantedFrame > 1;
+			final Pixmap pixmap = skipped ? null : decode(level, tx, ty);
+			Gdx.app.postRunnable(new Runnable() {@Override public void run() {
+				loaded(key, request, pixmap, skipped);
+			}});
+		}});
+	}
+
+	private Pixmap decode(int level, int tx, int ty) {
+		try {
+			return toPixmap(read(getSourceRegion(level, tx, ty), 1 << level));
+		} catch (IOException ex) {
+			Gdx.app.error("TiledImage", "Cannot read " + file.getPath(), ex);
+			return null;
+		} catch (RuntimeException ex) {
+			Gdx.app.error("TiledImage", "Cannot read " + file.getPath(), ex);
+			return null;
+		}
+	}
+
+	private BufferedImage read(Rectangle region, int subsampling) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(file);
+		if (input == null) throw new IOException("Cannot read file: " + file.getPath());
+
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) throw new IOException("Unsupported image format: " + file.getPath());
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private static Pixmap toPixmap(BufferedImage img) {
+		int w = img.getWidth(), h = img.getHeight();
+		int[] argb = img.getRGB(0, 0, w, h, null, 0, w);
+
+		Pixmap pixmap = new Pixmap(w, h, Pixmap.Format.RGBA8888);
+		ByteBuffer pixels = pixmap.getPixels();
+		pixels.clear();
+		for (int i=0; i<argb.length; i++) {
+			int c = argb[i];
+			pixels.put((byte) (c >> 16));
+			pixels.put((byte) (c >> 8));
+			pixels.put((byte) c);
+			pixels.put((byte) (c >>> 24));
+		}
+		pixels.clear();
+		return pixmap;
+	}
+
+	private void loaded(long key, Request request, Pixmap pixmap, boolean skipped) {
+		if (requests.get(key) == request) requests.remove(key);
+		if (pixmap == null) {
+			if (!skipped && !disposed) failedTiles.add(key);
+			return;
+		}
+		if (disposed) {
+			pixmap.dispose();
+			return;
+		}
+
+		Texture texture = new Texture(pixmap);
+		texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+		pixmap.dispose();
+
+		Tile tile = new Tile(texture);
+		tile.lastDrawnFrame = frame;
+		tiles.put(key, tile);
+		usedBytes += tile.bytes;
+		evict();
+
+		if (listener != null) listener.run();
+	}
+
+	private void evict() {
+		for (Iterator<Tile> it = tiles.values().iterator(); it.hasNext() && usedBytes > budget;) {
+			Tile tile = it.next();
+			if (tile.lastDrawnFrame >= frame - 1) continue;
+			it.remove();
+			usedBytes -= tile.bytes;
+			tile.texture.dispose();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package aurelienribon.utils.gdx;
+
+import com.badlogic.gdx.math.Vector2;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Growable array of 2D vectors, packed as interleaved x,y pairs in a single
+ * float[]. It costs 8 bytes per vector, instead of about 28 for a Vector2
+ * referenced from an ArrayList, and loops over it don't chase pointers.
+ * <p/>
+ * It can also be used as a List of Vector2, for existing code. Vectors are
+ * copied in and out: get() returns a new Vector2 every call, and modifying
+ * it doesn't change the array. Hot loops should use getX() and getY(), or
+ * the backing array.
+ */
+public class Vector2Array extends AbstractList<Vector2> implements RandomAccess {
+	private float[] items;
+	private int size;
+
+	public Vector2Array() {
+		this(16);
+	}
+
+	public Vector2Array(int capacity) {
+		items = new float[Math.max(capacity, 1) * 2];
+	}
+
+	// -------------------------------------------------------------------------
+	// Packed API
+	// -------------------------------------------------------------------------
+
+	public float getX(int idx) {
+		checkIndex(idx);
+		return items[idx*2];
+	}
+
+	public float getY(int idx) {
+		checkIndex(idx);
+		return items[idx*2+1];
+	}
+
+	/**
+	 * Gets the backing array, holding size()*2 valid values. It is replaced
+	 * when the array grows, so it must not be kept across modifications.
+	 */
+	public float[] getItems() {
+		return items;
+	}
+
+	public void add(float x, float y) {
+		ensureCapacity(size + 1);
+		items[size*2] = x;
+		items[size*2+1] = y;
+		size++;
+		modCount++;
+	}
+
+	public void addAll(Vector2Array vs) {
+		addAll(vs.items, 0, vs.size);
+	}
+
+	/**
+	 * Adds count vectors read as x,y pairs from the array, starting at the
+	 * given offset (in floats).
+	 */
+	public void addAll(float[] coords, int offset, int count) {
+		ensureCapacity(size + count);
+		System.arraycopy(coords, offset, items, size*2, count*2);
+		size += count;
+		modCount++;
+	}
+
+	public void set(int idx, float x, float y) {
+		checkIndex(idx);
+		items[idx*2] = x;
+		items[idx*2+1] = y;
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity*2 > items.length) items = Arrays.copyOf(items, Math.max(capacity*2, items.length * 3 / 2 + 2));
+	}
+
+	/**
+	 * Shrinks the backing array to the current size.
+	 */
+	public void trim() {
+		if (items.length > Math.max(size, 1) * 2) items = Arrays.copyOf(items, Math.max(size, 1) * 2);
+	}
+
+	// -------------------------------------------------------------------------
+	// List API
+	// -------------------------------------------------------------------------
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Vector2 get(int idx) {
+		checkIndex(idx);
+		return new Vector2(items[idx*2], items[idx*2+1]);
+	}
+
+	@Override
+	public Vector2 set(int idx, Vector2 v) {
+		Vector2 old = get(idx);
+		set(idx, v.x, v.y);
+		return old;
+	}
+
+	@Override
+	public boolean add(Vector2 v) {
+		add(v.x, v.y);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	private void checkIndex(int idx) {
+		if (idx < 0 || idx >= size) throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + size);
+	}
+}
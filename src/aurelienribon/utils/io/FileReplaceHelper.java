@@ -0,0 +1,42 @@
+package aurelienribon.utils.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes files through a temporary file, which replaces the target only
+ * once it is complete, so that a failed or cancelled write never leaves a
+ * truncated file behind.
+ */
+public class FileReplaceHelper {
+	/**
+	 * Creates an empty temporary file next to the target, so that it is on
+	 * the same file system and can be renamed to the target.
+	 */
+	public static File createTempFile(File target) throws IOException {
+		File dir = target.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create directory: " + dir.getPath());
+		return File.createTempFile("." + target.getName() + ".", ".tmp", dir);
+	}
+
+	/**
+	 * Renames the temporary file to the target. The rename is atomic where
+	 * the platform allows it. Elsewhere (Windows, when the target exists),
+	 * the target is first moved aside and restored if the rename fails.
+	 */
+	public static void replace(File tmp, File target) throws IOException {
+		if (tmp.renameTo(target)) return;
+		if (!target.exists()) throw new IOException("Cannot rename " + tmp.getPath() + " to " + target.getPath());
+
+		File backup = createTempFile(target);
+		if (!backup.delete() || !target.renameTo(backup))
+			throw new IOException("Cannot replace file: " + target.getPath());
+
+		if (!tmp.renameTo(target)) {
+			backup.renameTo(target);
+			throw new IOException("Cannot rename " + tmp.getPath() + " to " + target.getPath());
+		}
+
+		backup.delete();
+	}
+}
@@ -0,0 +1,165 @@
+package aurelienribon.utils.io;
+
+import java.awt.Dimension;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads image dimensions from the file header only, without decoding any
+ * pixel. Results are remembered in an on-disk cache, keyed by path, file
+ * size and modification time.
+ */
+public class ImageSizeHelper {
+	private static final String CHARSET = "UTF-8";
+	private static final Map<String, Entry> cache = new HashMap<String, Entry>();
+	private static File cacheFile = new File(System.getProperty("user.home"), ".polygon-editor/image-sizes.txt");
+	private static boolean cacheLoaded = false;
+	private static boolean cacheDirty = false;
+
+	private static class Entry {
+		public final long length, lastModified;
+		public final int width, height;
+
+		public Entry(long length, long lastModified, int width, int height) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Public API
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Gets the size of the image, from the cache if the file didn't change
+	 * since it was last probed.
+	 */
+	public static Dimension getSize(File file) throws IOException {
+		String path = file.getPath();
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		synchronized (cache) {
+			loadCache();
+			Entry e = cache.get(path);
+			if (e != null && e.length == length && e.lastModified == lastModified)
+				return new Dimension(e.width, e.height);
+		}
+
+		Dimension size = readSize(file);
+
+		synchronized (cache) {
+			cache.put(path, new Entry(length, lastModified, size.width, size.height));
+			cacheDirty = true;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Reads the size of the image from its header.
+	 */
+	public static Dimension readSize(File file) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(file);
+		if (input == null) throw new IOException("Cannot read file: " + file.getPath());
+
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) throw new IOException("Unsupported image format: " + file.getPath());
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the cache to disk if new sizes were probed. Failures are
+	 * ignored, the cache being only an optimization.
+	 */
+	public static void saveCache() {
+		synchronized (cache) {
+			if (!cacheDirty) return;
+			cacheDirty = false;
+
+			try {
+				cacheFile.getParentFile().mkdirs();
+				File tmpFile = new File(cacheFile.getPath() + ".tmp");
+				Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), CHARSET);
+
+				try {
+					for (Map.Entry<String, Entry> me : cache.entrySet()) {
+						Entry e = me.getValue();
+						writer.write(e.length + "\t" + e.lastModified + "\t" + e.width + "\t" + e.height + "\t" + me.getKey() + "\n");
+					}
+				} finally {
+					writer.close();
+				}
+
+				cacheFile.delete();
+				tmpFile.renameTo(cacheFile);
+			} catch (IOException ex) {
+			}
+		}
+	}
+
+	public static void setCacheFile(File file) {
+		synchronized (cache) {
+			cacheFile = file;
+			cache.clear();
+			cacheLoaded = false;
+			cacheDirty = false;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Internals
+	// -------------------------------------------------------------------------
+
+	private static void loadCache() {
+		if (cacheLoaded) return;
+		cacheLoaded = true;
+		if (!cacheFile.isFile()) return;
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), CHARSET));
+
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] words = line.split("\t", 5);
+					if (words.length < 5) continue;
+					try {
+						cache.put(words[4], new Entry(
+							Long.parseLong(words[0]), Long.parseLong(words[1]),
+							Integer.parseInt(words[2]), Integer.parseInt(words[3])));
+					} catch (NumberFormatException ex) {
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException ex) {
+		}
+	}
+}